@@ -0,0 +1,43 @@
+package fr.unice.platdujour.application;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+import fr.unice.platdujour.chord.Listing;
+
+/**
+ * This interface is implemented by the clients that write asynchronously in 
+ * the {@link GuideMichelin}, to be told which writes have been stored. The 
+ * writes are acknowledged by batch, one batch per peer that stores them.
+ */
+public interface BatchListener {
+
+	/** Listener that ignores the outcome of the writes */
+	BatchListener NONE = new BatchListener() {
+		@Override
+		public void committed(List<Listing> listings) {
+			// Nothing to do
+		}
+
+		@Override
+		public void failed(List<Listing> listings, RemoteException cause) {
+			// Nothing to do
+		}
+	};
+
+	/**
+	 * Called when a batch of listings has been stored by the peer that 
+	 * manages their key.
+	 * @param listings The listings that have been stored
+	 */
+	void committed(List<Listing> listings);
+
+	/**
+	 * Called when a batch of listings could not be stored, even after being 
+	 * sent again.
+	 * @param listings The listings that have not been stored
+	 * @param cause The last failure
+	 */
+	void failed(List<Listing> listings, RemoteException cause);
+
+}
@@ -0,0 +1,35 @@
+package fr.unice.platdujour.application;
+
+/**
+ * Number of replicas that must answer a request before it completes. The
+ * more replicas are required, the higher the latency and the stronger the
+ * guarantee that a read returns the last write.
+ */
+public enum ConsistencyLevel {
+
+	/** A single replica is enough: lowest latency */
+	ONE,
+
+	/** A majority of the replicas is required: a read at this level always
+	 * returns the last write made at this level */
+	QUORUM,
+
+	/** All the replicas are required: highest latency */
+	ALL;
+
+	/**
+	 * @param replicas The number of replicas of the key
+	 * @return The number of replicas that must answer a request
+	 */
+	public int getRequiredAnswers(int replicas) {
+		switch (this) {
+		case ONE:
+			return Math.min(1, replicas);
+		case QUORUM:
+			return replicas / 2 + 1;
+		default:
+			return replicas;
+		}
+	}
+
+}
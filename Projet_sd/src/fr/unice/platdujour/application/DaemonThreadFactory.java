@@ -0,0 +1,21 @@
+package fr.unice.platdujour.application;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This thread factory creates daemon threads, so that the background tasks
+ * of a client never prevent it from exiting.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
@@ -3,6 +3,7 @@ package fr.unice.platdujour.application;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -23,8 +24,10 @@ public class DataGenerator {
 	/** Number of new data that will be generated at each getNewData call */
 	private final int batchsize;
 	
-	/** In memory version of all (restaurant, daily special) couples */
-	private Map<String, String> entries;
+	/** In memory version of all (restaurant, daily special) couples. A 
+	 * restaurant may be listed with several daily specials in the file: they 
+	 * are served in turn. */
+	private Map<String, List<String>> entries;
 	
 	/** List of all restaurants */
 	private List<String> restaurants;
@@ -32,10 +35,14 @@ public class DataGenerator {
 	/** Current index of new data */
 	private int pointer;
 	
+	/** Number of times the list of restaurants has been fully read */
+	private int round;
+	
 	
 	public DataGenerator(int batchSize) {
-		this.entries = new HashMap<String, String>();
+		this.entries = new HashMap<String, List<String>>();
 		this.pointer = 0;
+		this.round = 0;
 		this.batchsize = batchSize;
 		this.initialize();
 	}
@@ -52,7 +59,12 @@ public class DataGenerator {
 			reader = new BufferedReader(new FileReader(DATA_FILENAME));
 			while ((line = reader.readLine()) != null) {
 				members = line.split(SEPARATOR);
-				this.entries.put(members[0], members[1]);
+				List<String> dailySpecials = this.entries.get(members[0]);
+				if (dailySpecials == null) {
+					dailySpecials = new ArrayList<String>();
+					this.entries.put(members[0], dailySpecials);
+				}
+				dailySpecials.add(members[1]);
 			}
 		}
 		catch (IOException e) {
@@ -75,23 +87,29 @@ public class DataGenerator {
 	/** 
 	 * Each call to this method will return a different set of 
 	 * (restaurant, daily special) couples. It reads the internal map circularly so 
-	 * that it always return updated daily specials for restaurants.
+	 * that it always return updated daily specials for restaurants: each time 
+	 * the map has been fully read, restaurants move on to their next daily 
+	 * special.
 	 * @return A new map from restaurants to daily specials whose size is 
 	 * {@link batchSize}. 
 	 */
 	public Map<String, String> getNewData() {
 		Map<String, String> newData = new HashMap<String, String>();
 		int start = this.pointer;
+		int size = this.entries.size();
 		String restaurant;
-		String dailySpecial;
+		List<String> dailySpecials;
+		int round;
 		
 		for (int i = 0 ; i < this.batchsize ; i++) {
-			restaurant = this.restaurants.get((start + i) % this.entries.size());
-			dailySpecial = this.entries.get(restaurant);
-			newData.put(restaurant, dailySpecial);
+			restaurant = this.restaurants.get((start + i) % size);
+			dailySpecials = this.entries.get(restaurant);
+			round = this.round + (start + i) / size;
+			newData.put(restaurant, dailySpecials.get(round % dailySpecials.size()));
 		}
 		
-		this.pointer = (start + this.batchsize) % this.entries.size();
+		this.round += (start + this.batchsize) / size;
+		this.pointer = (start + this.batchsize) % size;
 		return newData;
 	}
 
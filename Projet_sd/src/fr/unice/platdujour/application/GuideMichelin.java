@@ -1,6 +1,10 @@
 package fr.unice.platdujour.application;
 
 import java.rmi.RemoteException;
+import java.util.Set;
+import java.util.SortedMap;
+
+import fr.unice.platdujour.chord.DailySpecialListener;
 
 /**
  * This interface is the API of the GuideMichelin. We can put new entries in 
@@ -17,6 +21,54 @@ public interface GuideMichelin {
 	 */
     void put(String restaurant, String dailySpecial) throws RemoteException;
 
+    /**
+     * Stores a new entry (or an updated entry) in the GuideMichelin for a 
+     * limited time. Once its time to live has elapsed, the entry is no longer 
+     * returned.
+     * @param restaurant Name of the restaurant to list in the GuideMichelin
+     * @param dailySpecial Name of the daily special that offers the dish 
+     * @param ttl Time to live of the entry, in milliseconds
+     * @throws RemoteException
+     */
+    void put(String restaurant, String dailySpecial, long ttl) 
+    		throws RemoteException;
+
+    /**
+     * Stores a new entry (or an updated entry) in the GuideMichelin for a 
+     * limited time, on all the replicas of the restaurant key. The call 
+     * returns once the number of replicas required by the consistency level 
+     * have stored the entry.
+     * @param restaurant Name of the restaurant to list in the GuideMichelin
+     * @param dailySpecial Name of the daily special that offers the dish 
+     * @param ttl Time to live of the entry, in milliseconds
+     * @param level The consistency level of the write
+     * @throws RemoteException If the consistency level cannot be reached
+     */
+    void put(String restaurant, String dailySpecial, long ttl, 
+    		ConsistencyLevel level) throws RemoteException;
+
+    /**
+     * Stores a new entry (or an updated entry) in the GuideMichelin for a 
+     * limited time, asynchronously. The entry is queued, then written along 
+     * with other entries, and the outcome is reported to the 
+     * {@link BatchListener} of the GuideMichelin. This method waits while 
+     * too many entries are queued.
+     * @param restaurant Name of the restaurant to list in the GuideMichelin
+     * @param dailySpecial Name of the daily special that offers the dish 
+     * @param ttl Time to live of the entry, in milliseconds
+     * @throws InterruptedException If interrupted while waiting for room in 
+     * the queue
+     */
+    void putAsync(String restaurant, String dailySpecial, long ttl) 
+    		throws InterruptedException;
+
+    /**
+     * Waits until the outcome of all the entries stored asynchronously has 
+     * been reported.
+     * @throws InterruptedException
+     */
+    void flush() throws InterruptedException;
+
     /**
      * Searches for the daily special of a given restaurant.
      * @param restaurant The name of the restaurant
@@ -26,4 +78,66 @@ public interface GuideMichelin {
      */
     String get(String restaurant) throws RemoteException;
 
+    /**
+     * Searches for the daily special of a given restaurant on the replicas of 
+     * the restaurant key. The newest daily special among the answers of the 
+     * number of replicas required by the consistency level is returned, and 
+     * the replicas that answered with an older one are repaired.
+     * @param restaurant The name of the restaurant
+     * @param level The consistency level of the read
+     * @return The name of the daily special offered by the restaurant, or null 
+     * if there is no such restaurant
+     * @throws RemoteException If the consistency level cannot be reached
+     */
+    String get(String restaurant, ConsistencyLevel level) 
+    		throws RemoteException;
+
+    /**
+     * Searches for the restaurants that offer a given daily special.
+     * @param dailySpecial The name of the daily special
+     * @return The names of the restaurants that offer the daily special, or 
+     * an empty set if there is no such restaurant
+     * @throws RemoteException
+     */
+    Set<String> getRestaurants(String dailySpecial) throws RemoteException;
+
+    /**
+     * Subscribes a listener to the changes of the daily special of a 
+     * restaurant, instead of polling it. The listener is not called with the 
+     * current daily special, which must be read with {@link #get(String)}.
+     * @param restaurant The name of the restaurant to watch
+     * @param listener The listener to notify. It must be exported so that it 
+     * can be called remotely.
+     * @throws RemoteException
+     */
+    void watch(String restaurant, DailySpecialListener listener) 
+    		throws RemoteException;
+
+    /**
+     * Unsubscribes a listener from the changes of the daily special of a 
+     * restaurant.
+     * @param restaurant The name of the watched restaurant
+     * @param listener The listener to no longer notify
+     * @throws RemoteException
+     */
+    void unwatch(String restaurant, DailySpecialListener listener) 
+    		throws RemoteException;
+
+    /**
+     * Returns one page of the entries of the GuideMichelin, sorted by 
+     * restaurant name. The next page is obtained by calling this method again 
+     * with a restaurant name just after the last one of the current page 
+     * (e.g. <code>page.lastKey() + '\0'</code>). A prefix lookup is a scan 
+     * that starts from the prefix and stops at the first restaurant that does 
+     * not start with it.
+     * @param from The restaurant name from which the page starts (inclusive)
+     * @param limit The maximum number of entries in the page
+     * @return A sorted map from restaurants to daily specials that contains 
+     * at most limit entries
+     * @throws IllegalArgumentException If limit is negative
+     * @throws RemoteException
+     */
+    SortedMap<String, String> scan(String from, int limit) 
+    		throws RemoteException;
+
 }
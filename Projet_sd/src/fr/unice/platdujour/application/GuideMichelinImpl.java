@@ -1,9 +1,23 @@
 package fr.unice.platdujour.application;
 
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import fr.unice.platdujour.application.PeerPool.Operation;
+import fr.unice.platdujour.chord.DailySpecialListener;
 import fr.unice.platdujour.chord.Key;
+import fr.unice.platdujour.chord.Listing;
 import fr.unice.platdujour.chord.Peer;
+import fr.unice.platdujour.chord.SingleFlight;
 import fr.unice.platdujour.chord.Tracker;
 
 /**
@@ -13,46 +27,298 @@ import fr.unice.platdujour.chord.Tracker;
  */
 public class GuideMichelinImpl implements GuideMichelin {
 	
-	/** Tracker used to locate the peers that store the entries */
+	/** Tracker that lists all the peers of the network */
     private final Tracker tracker;
+
+	/** Entry peers used to locate the peers that store the entries */
+    private final PeerPool pool;
+
+    /** Thread pool that sends the requests made to several peers at once */
+    private final ExecutorService requests;
+
+    /** Daily special lookups in progress, shared by the concurrent requests 
+     * for the same restaurant */
+    private final SingleFlight<String, String> gets;
+
+    /** Reverse index lookups in progress, shared by the concurrent requests 
+     * for the same daily special */
+    private final SingleFlight<String, Set<String>> restaurantGets;
+
+    /** Sends the requests made at a consistency level to the replicas */
+    private final QuorumCoordinator quorum;
+
+    /** Entries stored asynchronously that have not been written yet */
+    private final WriteBehindQueue writes;
      
 
     public GuideMichelinImpl(Tracker tracker) {
+        this(tracker, BatchListener.NONE);
+    }
+
+    public GuideMichelinImpl(Tracker tracker, BatchListener listener) {
         this.tracker = tracker;
+        this.pool = new PeerPool(tracker);
+        this.requests = 
+        		Executors.newCachedThreadPool(new DaemonThreadFactory());
+        this.gets = new SingleFlight<String, String>();
+        this.restaurantGets = new SingleFlight<String, Set<String>>();
+        this.quorum = new QuorumCoordinator(this.requests);
+        this.writes = new WriteBehindQueue(this.pool, listener);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void put(String restaurant, String dailySpecial) 
+    public void put(final String restaurant, final String dailySpecial) 
     		throws RemoteException {
     	// Storing an entry in our peer-to-peer network simply consist in 
     	// asking the peer that is responsible for the restaurant key to store 
     	// the couple (restaurant, daily special)
-        this.findIndexer(restaurant).put(restaurant, dailySpecial);
+        this.pool.execute(new Operation<Void>() {
+            @Override
+            public Void execute(Peer entryPeer) throws RemoteException {
+                findIndexer(entryPeer, restaurant).put(restaurant, 
+                		dailySpecial);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(final String restaurant, final String dailySpecial, 
+    		final long ttl) throws RemoteException {
+        this.pool.execute(new Operation<Void>() {
+            @Override
+            public Void execute(Peer entryPeer) throws RemoteException {
+                findIndexer(entryPeer, restaurant).put(restaurant, 
+                		dailySpecial, ttl);
+                return null;
+            }
+        });
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public String get(String restaurant) throws RemoteException {
+    public void put(final String restaurant, final String dailySpecial, 
+    		long ttl, final ConsistencyLevel level) throws RemoteException {
+        final long expiration = 
+        		Listing.expiration(System.currentTimeMillis(), ttl);
+
+        this.pool.execute(new Operation<Void>() {
+            @Override
+            public Void execute(Peer entryPeer) throws RemoteException {
+            	// The listing is versioned by the peer that manages the 
+            	// restaurant, as the listings written without a consistency 
+            	// level, so that all the replicas receive the same listing
+                Peer indexer = findIndexer(entryPeer, restaurant);
+                Listing listing = indexer.stamp(restaurant, dailySpecial, 
+                		expiration);
+                GuideMichelinImpl.this.quorum.write(indexer.getReplicas(), 
+                		listing, level);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAsync(String restaurant, String dailySpecial, long ttl) 
+    		throws InterruptedException {
+    	// The listing is versioned by the peer that manages the restaurant 
+    	// when it is written
+        this.writes.add(new Listing(restaurant, dailySpecial, 
+        		Listing.expiration(System.currentTimeMillis(), ttl), 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws InterruptedException {
+        this.writes.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String get(final String restaurant) throws RemoteException {
     	// Getting a content in our peer-to-peer network simply consist in 
     	// asking the peer that is responsible for the restaurant key to return 
-    	// its associated value
-        return this.findIndexer(restaurant).get(restaurant);
+    	// its associated value. Reads have no side effect, so they are hedged, 
+    	// and concurrent reads of the same restaurant share their result.
+        return this.gets.execute(restaurant, new SingleFlight.Call<String>() {
+            @Override
+            public String call() throws RemoteException {
+                return GuideMichelinImpl.this.pool.executeHedged(
+                		new Operation<String>() {
+                    @Override
+                    public String execute(Peer entryPeer) 
+                    		throws RemoteException {
+                        return findIndexer(entryPeer, restaurant).get(
+                        		restaurant);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String get(final String restaurant, final ConsistencyLevel level) 
+    		throws RemoteException {
+        Listing listing = this.pool.execute(new Operation<Listing>() {
+            @Override
+            public Listing execute(Peer entryPeer) throws RemoteException {
+                List<Peer> replicas = findIndexer(entryPeer, restaurant)
+                		.getReplicas();
+                return GuideMichelinImpl.this.quorum.read(replicas, 
+                		restaurant, level);
+            }
+        });
+
+        return listing == null ? null : listing.getDailySpecial();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getRestaurants(final String dailySpecial) 
+    		throws RemoteException {
+    	// The reverse index of a daily special is stored by the peer that is 
+    	// responsible for the daily special key: a single lookup is enough
+        return this.restaurantGets.execute(dailySpecial, 
+        		new SingleFlight.Call<Set<String>>() {
+            @Override
+            public Set<String> call() throws RemoteException {
+                return GuideMichelinImpl.this.pool.executeHedged(
+                		new Operation<Set<String>>() {
+                    @Override
+                    public Set<String> execute(Peer entryPeer) 
+                    		throws RemoteException {
+                        return findIndexer(entryPeer, dailySpecial)
+                        		.getRestaurants(dailySpecial);
+                    }
+                });
+            }
+        });
     }
 
     /**
-     * Locates the peer that must store a content whose key is the restaurant 
-     * name.
-     * @param restaurant
+     * {@inheritDoc}
+     */
+    @Override
+    public void watch(final String restaurant, 
+    		final DailySpecialListener listener) throws RemoteException {
+    	// The subscription is kept by the peer that manages the restaurant 
+    	// key, which is the one that receives its updates
+        this.pool.execute(new Operation<Void>() {
+            @Override
+            public Void execute(Peer entryPeer) throws RemoteException {
+                findIndexer(entryPeer, restaurant).watch(restaurant, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unwatch(final String restaurant, 
+    		final DailySpecialListener listener) throws RemoteException {
+        this.pool.execute(new Operation<Void>() {
+            @Override
+            public Void execute(Peer entryPeer) throws RemoteException {
+                findIndexer(entryPeer, restaurant).unwatch(restaurant, 
+                		listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SortedMap<String, String> scan(final String from, 
+    		final int limit) throws RemoteException {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid page size: " + limit);
+        }
+
+    	// Restaurant keys are hashed on the ring, so any peer may store an 
+    	// entry of the page: all the peers are asked in parallel for the first 
+    	// entries they manage from the specified restaurant, and only the 
+    	// first limit entries of the merge are kept. The peers are taken from 
+    	// the tracker rather than by walking the ring, which may be changing.
+        List<Future<SortedMap<String, Listing>>> answers = 
+        		new ArrayList<Future<SortedMap<String, Listing>>>();
+        for (final Peer peer : this.tracker.getPeers()) {
+            answers.add(this.requests.submit(
+            		new Callable<SortedMap<String, Listing>>() {
+                @Override
+                public SortedMap<String, Listing> call() 
+                		throws RemoteException {
+                    return peer.scan(from, limit);
+                }
+            }));
+        }
+
+        SortedMap<String, Listing> listings = new TreeMap<String, Listing>();
+        try {
+            for (Future<SortedMap<String, Listing>> answer : answers) {
+                try {
+                    // While the ring changes, two peers may return the same 
+                    // restaurant: the newest listing is kept
+                    for (Listing listing : answer.get().values()) {
+                        Listing kept = listings.get(listing.getRestaurant());
+                        if (kept == null || listing.isNewerThan(kept)) {
+                            listings.put(listing.getRestaurant(), listing);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    // A dead peer is skipped: its entries are managed by 
+                    // its successor once the ring has healed
+                }
+                while (listings.size() > limit) {
+                    listings.remove(listings.lastKey());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while scanning", e);
+        }
+
+        SortedMap<String, String> page = new TreeMap<String, String>();
+        for (Listing listing : listings.values()) {
+            page.put(listing.getRestaurant(), listing.getDailySpecial());
+        }
+        return page;
+    }
+
+    /**
+     * Locates the peer that must store a content whose key is the specified 
+     * name (a restaurant name, or a daily special name for the reverse index).
+     * @param entryPeer The peer from which the network is accessed
+     * @param name
      * @return The peer that is responsible for this key
      * @throws RemoteException
      */
-    private final Peer findIndexer(String restaurant) throws RemoteException {
-        return this.tracker.getRandomPeer().findSuccessor(new Key(restaurant));
+    private static Peer findIndexer(Peer entryPeer, String name) 
+    		throws RemoteException {
+        return entryPeer.findSuccessor(new Key(name));
     }
 
 }
@@ -2,12 +2,29 @@ package fr.unice.platdujour.application;
 
 import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import fr.unice.platdujour.chord.DailySpecialListener;
 import fr.unice.platdujour.chord.Identifier;
+import fr.unice.platdujour.chord.Key;
+import fr.unice.platdujour.chord.LinkLatency;
+import fr.unice.platdujour.chord.Listing;
 import fr.unice.platdujour.chord.Peer;
 import fr.unice.platdujour.chord.PeerImpl;
+import fr.unice.platdujour.chord.Rebalancer;
+import fr.unice.platdujour.chord.RingBuilder;
 import fr.unice.platdujour.chord.Tracker;
 import fr.unice.platdujour.chord.TrackerImpl;
 import fr.unice.platdujour.exceptions.AlreadyRegisteredException;
@@ -15,18 +32,57 @@ import fr.unice.platdujour.exceptions.AlreadyRegisteredException;
 /**
  * This class defines a main in which
  * 1) a tracker is created
- * 2) a Chord network is initialized
- * 3) all the peers in the network are listed
+ * 2) a Chord network is initialized, either by joining the peers one at a 
+ * time or in bulk from the list of peers of the tracker
+ * 3) all the peers in the network are listed, and the duration of the 
+ * lookups is measured
  * 4) a {@link GuideMichelin} is created. It will use the Chord network
- * 5) some data are added to the {@link GuideMichelin}
+ * 5) some data are added to the {@link GuideMichelin}, one entry at a time, 
+ * then asynchronously in groups
  * 6) the peers are listed again with the data they store
  * 7) some data are requested from the {@link GuideMichelin}
+ * 8) the restaurants that offer some daily specials are requested
+ * 9) the restaurants whose name starts with a prefix are listed page by page
+ * 10) a restaurant is watched while its daily special changes
+ * 11) the load of the peers is balanced and the peers are listed again
+ * 12) a peer dies and the peers are listed again once the ring has healed
  */
 public class Main {
 	
 	/** Number of peers that will be injected in the network */
 	private static final int NB_PEERS = 10; 
+
+	/** true to build the network in bulk, false to join the peers one at a 
+	 * time and wait for the stabilizations to converge */
+	private static final boolean BULK_BOOTSTRAP = true;
+
+	/** Number of peers that are created at the same time by a bulk 
+	 * bootstrap */
+	private static final int NB_BOOTSTRAP_THREADS = 8;
 	
+	/** Number of entries fetched at each page of a scan */
+	private static final int PAGE_SIZE = 5;
+
+	/** Time to live of the daily specials, in milliseconds */
+	private static final long DAILY_SPECIAL_TTL = TimeUnit.DAYS.toMillis(1);
+
+	/** Maximum number of peer relocations done to balance the load */
+	private static final int MAX_REBALANCE_STEPS = 5;
+
+	/** Number of racks over which the peers are spread */
+	private static final int NB_RACKS = 3;
+
+	/** Emulated round trip time, in milliseconds, between two peers of the 
+	 * same rack */
+	private static final long INTRA_RACK_RTT = 1;
+
+	/** Emulated round trip time, in milliseconds, between two peers of 
+	 * different racks */
+	private static final long INTER_RACK_RTT = 5;
+
+	/** Number of lookups whose duration is measured */
+	private static final int NB_LOOKUPS = 100;
+
 	/** Port number of RMI registry */
 	private static final int RMI_REGISTRY_PORT = 1099;
 
@@ -43,31 +99,89 @@ public class Main {
 				(Tracker) Naming.lookup("rmi://localhost:" + RMI_REGISTRY_PORT
 						+ "/tracker");
 		
-		// A Chord network is initialized
-		createNetwork(tracker);
+		// A Chord network is initialized. The peers are spread over several 
+		// emulated racks.
+		RackLatency rackLatency = new RackLatency();
 
-		// All the peers in the network are listed
-		Thread.sleep((long) (Math.log(NB_PEERS)*1000));
-		System.out.println("\nTurn around after first stabilization");
-		turnAround(tracker.getRandomPeer());
+		if (BULK_BOOTSTRAP) {
+			long start = System.currentTimeMillis();
+			bootstrapNetwork(tracker, rackLatency);
+			System.out.println("Network of " + NB_PEERS 
+					+ " peers bootstrapped in " 
+					+ (System.currentTimeMillis() - start) + " ms");
 
-		Thread.sleep((long) (Math.log(NB_PEERS)*1000));
-		System.out.println("\nTurn around after second stabilization");
-		turnAround(tracker.getRandomPeer());
+			// All the peers in the network are listed
+			System.out.println("\nTurn around after bulk bootstrap");
+			turnAround(tracker.getRandomPeer());
+
+			// The round trip times to the fingers are measured by the first 
+			// stabilization
+			Thread.sleep(1000);
+		} else {
+			createNetwork(tracker, rackLatency);
+
+			// All the peers in the network are listed
+			Thread.sleep((long) (Math.log(NB_PEERS)*1000));
+			System.out.println("\nTurn around after first stabilization");
+			turnAround(tracker.getRandomPeer());
+
+			Thread.sleep((long) (Math.log(NB_PEERS)*1000));
+			System.out.println("\nTurn around after second stabilization");
+			turnAround(tracker.getRandomPeer());
+		}
+
+		// The lookups are routed through the closest peers of the emulated 
+		// racks
+		System.out.println("\nAverage lookup duration: " 
+				+ measureLookups(tracker) + " ms");
 
 		// A GuideMichelin is created. It will use the Chord network
-		GuideMichelin guideMichelin = new GuideMichelinImpl(tracker);
+		GuideMichelin guideMichelin = new GuideMichelinImpl(tracker,
+				new BatchListener() {
+			@Override
+			public void committed(List<Listing> listings) {
+				System.out.println("Batch of " + listings.size()
+						+ " entries committed");
+			}
+
+			@Override
+			public void failed(List<Listing> listings,
+					RemoteException cause) {
+				System.out.println("Batch of " + listings.size()
+						+ " entries failed: " + cause);
+			}
+		});
 
-		// Some data are added to the {@link GuideMichelin}
+		// Some data are added to the {@link GuideMichelin}, one entry at a 
+		// time
 		DataGenerator dataGenerator = new DataGenerator(10);
 		Map<String, String> newData;
+		long start = System.currentTimeMillis();
 
 		for (int i = 0 ; i < 10 ; i++) {
 			newData = dataGenerator.getNewData();      
 			for (Entry<String, String> entry : newData.entrySet()) {
-				guideMichelin.put(entry.getKey(), entry.getValue());
+				guideMichelin.put(entry.getKey(), entry.getValue(),
+						DAILY_SPECIAL_TTL, ConsistencyLevel.QUORUM);
 			}
 		}
+		System.out.println("\nEntries added one at a time in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		// The daily specials are then updated asynchronously: the entries 
+		// are written in groups, one request per peer
+		start = System.currentTimeMillis();
+
+		for (int i = 0 ; i < 10 ; i++) {
+			newData = dataGenerator.getNewData();      
+			for (Entry<String, String> entry : newData.entrySet()) {
+				guideMichelin.putAsync(entry.getKey(), entry.getValue(),
+						DAILY_SPECIAL_TTL);
+			}
+		}
+		guideMichelin.flush();
+		System.out.println("Entries added asynchronously in "
+				+ (System.currentTimeMillis() - start) + " ms");
 
 		// The peers are listed again with the data they store
 		Thread.sleep(2000);
@@ -80,20 +194,136 @@ public class Main {
 		for (String restaurant : restaurants) {
 			System.out.println("\nRestaurant '" + restaurant + "' - Daily special: '"
 					+ guideMichelin.get(restaurant) + "'");
+			System.out.println("Restaurant '" + restaurant 
+					+ "' - Daily special read from a quorum: '"
+					+ guideMichelin.get(restaurant, ConsistencyLevel.QUORUM) 
+					+ "'");
+		}
+
+		// The restaurants that offer some daily specials are requested
+		String[] dailySpecials = {"Risotto", "Huitres", "toto"};
+
+		for (String dailySpecial : dailySpecials) {
+			System.out.println("\nDaily special '" + dailySpecial
+					+ "' - Restaurants: "
+					+ guideMichelin.getRestaurants(dailySpecial));
 		}
+
+		// The restaurants whose name starts with a prefix are listed page by 
+		// page
+		String prefix = "Le ";
+		System.out.println("\nRestaurants starting with '" + prefix + "'");
+		String from = prefix;
+		SortedMap<String, String> page;
+
+		do {
+			page = guideMichelin.scan(from, PAGE_SIZE);
+			for (Entry<String, String> entry : page.entrySet()) {
+				if (!entry.getKey().startsWith(prefix)) {
+					page.clear();
+					break;
+				}
+				System.out.println("Restaurant '" + entry.getKey()
+						+ "' - Daily special: '" + entry.getValue() + "'");
+			}
+			if (!page.isEmpty()) {
+				from = page.lastKey() + '\0';
+			}
+		} while (page.size() == PAGE_SIZE);
+
+		// A restaurant is watched while its daily special changes. The 
+		// changes made within the same notification period of the peer are 
+		// coalesced into a single notification.
+		DailySpecialListener listener = new DailySpecialListener() {
+			@Override
+			public void dailySpecialChanged(String restaurant,
+					String dailySpecial) {
+				System.out.println("Restaurant '" + restaurant
+						+ "' - New daily special: '" + dailySpecial + "'");
+			}
+		};
+		UnicastRemoteObject.exportObject(listener, 0);
+		String watchedRestaurant = restaurants[0];
+
+		System.out.println("\nWatching restaurant '" + watchedRestaurant + "'");
+		guideMichelin.watch(watchedRestaurant, listener);
+		guideMichelin.put(watchedRestaurant, "Soupe a l'oignon",
+				DAILY_SPECIAL_TTL);
+		guideMichelin.put(watchedRestaurant, "Boeuf bourguignon",
+				DAILY_SPECIAL_TTL);
+		Thread.sleep(1000);
+		guideMichelin.unwatch(watchedRestaurant, listener);
+		UnicastRemoteObject.unexportObject(listener, true);
+
+		// The load of the peers is balanced and the peers are listed again
+		for (int i = 0 ; i < MAX_REBALANCE_STEPS ; i++) {
+			if (!Rebalancer.rebalance(tracker)) {
+				break;
+			}
+			// The other peers update their links to the relocated peer
+			Thread.sleep(1000);
+		}
+		System.out.println("\nTurn around after balancing the load");
+		turnAround(tracker.getRandomPeer());
+
+		// A peer dies and the peers are listed again once the ring has healed
+		Peer deadPeer = tracker.getRandomPeer();
+		Peer landmarkPeer = deadPeer.getSuccessor();
+		deadPeer.die();
+
+		Thread.sleep(2000);
+		System.out.println("\nTurn around after the death of a peer");
+		turnAround(landmarkPeer);
+	}
+
+	/**
+	 * Emulates the latency between peers spread over {@link #NB_RACKS} 
+	 * racks. A relocated peer gets an identifier that is not in any rack, so 
+	 * it is considered far from all the other peers.
+	 */
+	private static class RackLatency implements LinkLatency {
+
+		/** Rack of each peer, by identifier */
+		private final Map<Identifier, Integer> racks =
+				new ConcurrentHashMap<Identifier, Integer>();
+
+		/**
+		 * Creates a peer in the rack that follows the rack of the previous 
+		 * peer.
+		 * @param i The index of the peer
+		 * @return The new peer
+		 * @throws RemoteException
+		 */
+		public Peer createPeer(int i) throws RemoteException {
+			Identifier id = new Identifier(i * 100);
+			this.racks.put(id, i % NB_RACKS);
+			return new PeerImpl(id, this);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long getRoundTripTime(Identifier from, Identifier to) {
+			Integer fromRack = this.racks.get(from);
+			return fromRack != null && fromRack.equals(this.racks.get(to)) 
+					? INTRA_RACK_RTT : INTER_RACK_RTT;
+		}
+
 	}
 
 	/**
 	 * Creates a network composed of NB_PEERS peers.
 	 * @param tracker The tracker that is going to keep track of the peers
+	 * @param rackLatency The emulated latency between the peers
 	 * @throws RemoteException
 	 * @throws AlreadyRegisteredException If a peer tries to register more 
 	 * than once
 	 */
-	private static void createNetwork(Tracker tracker) 
+	private static void createNetwork(Tracker tracker, RackLatency rackLatency) 
 			throws RemoteException, AlreadyRegisteredException {
 		for (int i = 0 ; i < NB_PEERS ; i++) {
-			Peer p = new PeerImpl(new Identifier(i * 100));
+			Peer p = rackLatency.createPeer(i);
 
 			if (i == 0) {
 				System.out.println("Ring created by " + p.getId());
@@ -114,6 +344,67 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Creates a network composed of NB_PEERS peers in bulk: the peers are 
+	 * created and registered in parallel, then they are linked together 
+	 * directly from the list of peers of the tracker.
+	 * @param tracker The tracker that is going to keep track of the peers
+	 * @param rackLatency The emulated latency between the peers
+	 * @throws Exception If a peer could not be created or registered
+	 */
+	private static void bootstrapNetwork(final Tracker tracker, 
+			final RackLatency rackLatency) throws Exception {
+		ExecutorService executor = 
+				Executors.newFixedThreadPool(NB_BOOTSTRAP_THREADS);
+		List<Future<Void>> creations = new ArrayList<Future<Void>>();
+
+		for (int i = 0 ; i < NB_PEERS ; i++) {
+			final int index = i;
+			creations.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					tracker.register(rackLatency.createPeer(index));
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> creation : creations) {
+				creation.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw (Exception) e.getCause();
+		} finally {
+			executor.shutdown();
+		}
+
+		RingBuilder.build(tracker.getPeers());
+	}
+
+	/**
+	 * Looks up the peers that manage some keys, each from a random peer.
+	 * @param tracker The tracker that keeps track of the peers
+	 * @return The average duration of a lookup, in milliseconds
+	 * @throws RemoteException
+	 */
+	private static double measureLookups(Tracker tracker) 
+			throws RemoteException {
+		long duration = 0;
+
+		for (int i = 0 ; i < NB_LOOKUPS ; i++) {
+			Peer entryPeer = tracker.getRandomPeer();
+			long start = System.nanoTime();
+			entryPeer.findSuccessor(new Key("Restaurant " + i));
+			duration += System.nanoTime() - start;
+		}
+
+		return duration / 1e6 / NB_LOOKUPS;
+	}
+
 	/**
 	 * This method run through the entire Chord network and print each 
 	 * encountered peer.
@@ -0,0 +1,359 @@
+package fr.unice.platdujour.application;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.unice.platdujour.chord.Peer;
+import fr.unice.platdujour.chord.Tracker;
+
+/**
+ * This class keeps a set of peers that are known to be alive and that are
+ * used as entry points in the Chord network. Operations are retried on
+ * another entry peer when they fail, and the peers that failed are checked
+ * in the background until they answer again or are forgotten. This way, the
+ * tracker is only contacted when the pool runs out of peers.
+ */
+public class PeerPool {
+
+	/** Number of entry peers that the pool tries to keep */
+	private static final int POOL_SIZE = 5;
+
+	/** Maximum number of entry peers an operation is tried on */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/** Period, in milliseconds, between two health checks of the peers */
+	private static final long HEALTH_CHECK_PERIOD = 1000;
+
+	/** Number of consecutive failed health checks after which a suspected
+	 * peer is forgotten */
+	private static final int MAX_FAILED_CHECKS = 3;
+
+	/** Delay, in milliseconds, after which a hedged operation that has not
+	 * answered yet is also sent to another entry peer */
+	private static final long HEDGE_DELAY = 50;
+
+	/**
+	 * An operation that is performed from an entry peer of the network.
+	 * @param <T> The type of the result of the operation
+	 */
+	public interface Operation<T> {
+
+		/**
+		 * Performs the operation.
+		 * @param entryPeer The peer from which the network is accessed
+		 * @return The result of the operation
+		 * @throws RemoteException
+		 */
+		T execute(Peer entryPeer) throws RemoteException;
+
+	}
+
+	/** Tracker used to find new entry peers */
+	private final Tracker tracker;
+
+	/** Entry peers that answered their last health check */
+	private final List<Peer> alivePeers;
+
+	/** Entry peers that failed, with their number of consecutive failed
+	 * health checks */
+	private final Map<Peer, Integer> suspectedPeers;
+
+	/** Used for random picking in the entry peers */
+	private final Random randomGenerator;
+
+	/** Thread pool that runs the hedged operations */
+	private final ExecutorService requests;
+
+
+	public PeerPool(Tracker tracker) {
+		this.tracker = tracker;
+		this.alivePeers = new ArrayList<Peer>();
+		this.suspectedPeers = new HashMap<Peer, Integer>();
+		this.randomGenerator = new Random();
+
+		this.requests =
+				Executors.newCachedThreadPool(new DaemonThreadFactory());
+
+		ScheduledExecutorService healthChecker =
+				Executors.newSingleThreadScheduledExecutor(
+						new DaemonThreadFactory());
+		healthChecker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				PeerPool.this.checkHealth();
+			}
+		}, HEALTH_CHECK_PERIOD, HEALTH_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Performs an operation from an entry peer. If the operation fails, it is
+	 * tried again from another entry peer, at most {@link #MAX_ATTEMPTS}
+	 * times.
+	 * @param operation The operation to perform
+	 * @return The result of the operation
+	 * @throws RemoteException If all the attempts failed
+	 */
+	public <T> T execute(Operation<T> operation) throws RemoteException {
+		List<Peer> triedPeers = new ArrayList<Peer>();
+		RemoteException failure = null;
+
+		for (int i = 0 ; i < MAX_ATTEMPTS ; i++) {
+			Peer entryPeer = this.pick(triedPeers);
+			if (entryPeer == null) {
+				break;
+			}
+			triedPeers.add(entryPeer);
+
+			try {
+				return operation.execute(entryPeer);
+			} catch (RemoteException e) {
+				this.failed(entryPeer);
+				failure = e;
+			}
+		}
+
+		throw failure != null ? failure
+				: new RemoteException("No peer available in the network");
+	}
+
+	/**
+	 * Performs an operation from an entry peer. If the operation has not
+	 * answered after {@link #HEDGE_DELAY} milliseconds, or if it fails, it is
+	 * also performed from another entry peer, and the first result is
+	 * returned. This trades some extra requests for a lower tail latency, so
+	 * it should only be used for operations without side effects.
+	 * @param operation The operation to perform
+	 * @return The result of the first attempt that succeeded
+	 * @throws RemoteException If all the attempts failed
+	 */
+	public <T> T executeHedged(final Operation<T> operation)
+			throws RemoteException {
+		CompletionService<T> attempts =
+				new ExecutorCompletionService<T>(this.requests);
+		List<Future<T>> pending = new ArrayList<Future<T>>();
+		List<Peer> triedPeers = new ArrayList<Peer>();
+		Throwable failure = null;
+
+		try {
+			while (true) {
+				// A new attempt is started at first, after each failure and
+				// each time the hedge delay elapses without an answer
+				if (triedPeers.size() < MAX_ATTEMPTS) {
+					final Peer entryPeer = this.pick(triedPeers);
+					if (entryPeer != null) {
+						triedPeers.add(entryPeer);
+						pending.add(attempts.submit(new Callable<T>() {
+							@Override
+							public T call() throws RemoteException {
+								try {
+									return operation.execute(entryPeer);
+								} catch (RemoteException e) {
+									PeerPool.this.failed(entryPeer);
+									throw e;
+								}
+							}
+						}));
+					}
+				}
+
+				int running = 0;
+				for (Future<T> attempt : pending) {
+					if (!attempt.isDone()) {
+						running++;
+					}
+				}
+				Future<T> done = attempts.poll(HEDGE_DELAY,
+						TimeUnit.MILLISECONDS);
+				if (done == null && running == 0) {
+					break;
+				}
+				if (done != null) {
+					try {
+						return done.get();
+					} catch (ExecutionException e) {
+						failure = e.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = e;
+		} finally {
+			// The attempts that are still running are no longer needed
+			for (Future<T> attempt : pending) {
+				attempt.cancel(true);
+			}
+		}
+
+		if (failure instanceof RemoteException) {
+			throw (RemoteException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		throw new RemoteException("No peer could perform the operation",
+				failure);
+	}
+
+	/**
+	 * Picks randomly an alive entry peer that has not been tried yet. The
+	 * pool is refilled first if it is empty.
+	 * @param triedPeers The peers that must not be picked
+	 * @return An entry peer, or null if no other peer is available
+	 */
+	private Peer pick(List<Peer> triedPeers) {
+		List<Peer> candidates = new ArrayList<Peer>();
+
+		if (this.isEmpty()) {
+			this.refill();
+		}
+
+		synchronized (this) {
+			for (Peer peer : this.alivePeers) {
+				if (!triedPeers.contains(peer)) {
+					candidates.add(peer);
+				}
+			}
+		}
+
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		return candidates.get(this.randomGenerator.nextInt(candidates.size()));
+	}
+
+	/**
+	 * Handles the failure of an operation performed from an entry peer. The
+	 * failure may come from any peer reached during the operation, so the
+	 * entry peer is only suspected if it does not answer a ping itself.
+	 * @param entryPeer The peer from which the operation was performed
+	 */
+	private void failed(Peer entryPeer) {
+		if (!isAlive(entryPeer)) {
+			this.suspect(entryPeer);
+		}
+	}
+
+	/**
+	 * Stops using an entry peer until it answers a health check again.
+	 * @param peer The peer that failed
+	 */
+	private synchronized void suspect(Peer peer) {
+		if (this.alivePeers.remove(peer)) {
+			this.suspectedPeers.put(peer, 0);
+		}
+	}
+
+	/**
+	 * Pings all the known entry peers. The alive peers that do not answer are
+	 * suspected, the suspected peers that answer are used again and the
+	 * suspected peers that keep failing are forgotten. Finally, the pool is
+	 * refilled if it lacks peers.
+	 */
+	private void checkHealth() {
+		List<Peer> alivePeers;
+		Map<Peer, Integer> suspectedPeers;
+
+		// Peers are pinged without holding the lock so that operations can
+		// still pick peers in the meantime
+		synchronized (this) {
+			alivePeers = new ArrayList<Peer>(this.alivePeers);
+			suspectedPeers = new HashMap<Peer, Integer>(this.suspectedPeers);
+		}
+
+		for (Peer peer : alivePeers) {
+			if (!isAlive(peer)) {
+				this.suspect(peer);
+			}
+		}
+
+		for (Map.Entry<Peer, Integer> suspected : suspectedPeers.entrySet()) {
+			Peer peer = suspected.getKey();
+			boolean alive = isAlive(peer);
+
+			synchronized (this) {
+				if (alive) {
+					this.suspectedPeers.remove(peer);
+					if (!this.alivePeers.contains(peer)) {
+						this.alivePeers.add(peer);
+					}
+				} else if (suspected.getValue() + 1 >= MAX_FAILED_CHECKS) {
+					this.suspectedPeers.remove(peer);
+				} else {
+					this.suspectedPeers.put(peer, suspected.getValue() + 1);
+				}
+			}
+		}
+
+		this.refill();
+	}
+
+	/**
+	 * @return true if the pool has no alive entry peer
+	 */
+	private synchronized boolean isEmpty() {
+		return this.alivePeers.isEmpty();
+	}
+
+	/**
+	 * Adds new entry peers to the pool if it is not full: a random peer is 
+	 * retrieved from the tracker, then its successors are added until the 
+	 * pool is full or the whole ring has been visited.
+	 */
+	private void refill() {
+		List<Peer> foundPeers = new ArrayList<Peer>();
+
+		try {
+			Peer landmarkPeer = this.tracker.getRandomPeer();
+			Peer peer = landmarkPeer;
+
+			while (peer != null && foundPeers.size() < POOL_SIZE) {
+				foundPeers.add(peer);
+				peer = peer.getSuccessor();
+				if (peer.equals(landmarkPeer)) {
+					break;
+				}
+			}
+		} catch (RemoteException e) {
+			// The peers found so far are kept: the pool will be refilled
+			// again at the next health check
+		}
+
+		synchronized (this) {
+			for (Peer peer : foundPeers) {
+				if (this.alivePeers.size() < POOL_SIZE
+						&& !this.alivePeers.contains(peer)
+						&& !this.suspectedPeers.containsKey(peer)) {
+					this.alivePeers.add(peer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param peer
+	 * @return true if the peer answers a remote call
+	 */
+	private static boolean isAlive(Peer peer) {
+		try {
+			peer.getId();
+			return true;
+		} catch (RemoteException e) {
+			return false;
+		}
+	}
+
+}
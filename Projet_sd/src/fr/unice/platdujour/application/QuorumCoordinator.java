@@ -0,0 +1,176 @@
+package fr.unice.platdujour.application;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fr.unice.platdujour.chord.Listing;
+import fr.unice.platdujour.chord.Peer;
+
+/**
+ * This class sends requests to all the replicas of a key in parallel, and
+ * completes them as soon as the number of replicas required by a
+ * {@link ConsistencyLevel} have answered. The other requests keep running in
+ * the background. Reads also repair the replicas that answered with an
+ * outdated listing.
+ */
+public class QuorumCoordinator {
+
+	/** Thread pool that sends the requests to the replicas */
+	private final ExecutorService requests;
+
+
+	public QuorumCoordinator(ExecutorService requests) {
+		this.requests = requests;
+	}
+
+	/**
+	 * Writes a listing on all the replicas of its key. A replica that already
+	 * stores a newer listing rejects the write, and does not count toward the
+	 * consistency level.
+	 * @param replicas The replicas of the key of the listing
+	 * @param listing The listing to write
+	 * @param level The consistency level of the write
+	 * @throws RemoteException If too many replicas failed or rejected the
+	 * write to reach the consistency level
+	 */
+	public void write(List<Peer> replicas, final Listing listing,
+			ConsistencyLevel level) throws RemoteException {
+		CompletionService<Listing> answers =
+				new ExecutorCompletionService<Listing>(this.requests);
+
+		for (final Peer replica : replicas) {
+			answers.submit(new Callable<Listing>() {
+				@Override
+				public Listing call() throws RemoteException {
+					if (!replica.write(listing)) {
+						throw new RemoteException("A newer listing of "
+								+ listing.getRestaurant()
+								+ " is already stored");
+					}
+					return listing;
+				}
+			});
+		}
+
+		this.await(answers, replicas.size(), level);
+	}
+
+	/**
+	 * Reads the listing of a restaurant from the replicas of its key. Among
+	 * the answers, the newest listing is returned, and the replicas that
+	 * answered with an older listing are repaired in the background.
+	 * @param replicas The replicas of the key of the restaurant
+	 * @param restaurant The name of the restaurant
+	 * @param level The consistency level of the read
+	 * @return The newest listing found, or null if no replica has one
+	 * @throws RemoteException If too many replicas failed to reach the
+	 * consistency level
+	 */
+	public Listing read(List<Peer> replicas, final String restaurant,
+			ConsistencyLevel level) throws RemoteException {
+		CompletionService<Listing> answers =
+				new ExecutorCompletionService<Listing>(this.requests);
+		Map<Future<Listing>, Peer> senders = new HashMap<Future<Listing>, Peer>();
+
+		for (final Peer replica : replicas) {
+			senders.put(answers.submit(new Callable<Listing>() {
+				@Override
+				public Listing call() throws RemoteException {
+					return replica.read(restaurant);
+				}
+			}), replica);
+		}
+
+		Map<Future<Listing>, Listing> received =
+				this.await(answers, replicas.size(), level);
+
+		Listing newest = null;
+		for (Listing listing : received.values()) {
+			if (listing != null
+					&& (newest == null || listing.isNewerThan(newest))) {
+				newest = listing;
+			}
+		}
+
+		// Read repair: the replicas that answered with an older listing, or
+		// without any listing, are sent the newest one
+		if (newest != null) {
+			for (Map.Entry<Future<Listing>, Listing> answer :
+					received.entrySet()) {
+				if (answer.getValue() == null
+						|| newest.isNewerThan(answer.getValue())) {
+					this.repair(senders.get(answer.getKey()), newest);
+				}
+			}
+		}
+
+		return newest;
+	}
+
+	/**
+	 * Waits until enough replicas have answered to reach a consistency level.
+	 * @param answers The requests sent to the replicas
+	 * @param replicas The number of requests sent
+	 * @param level The consistency level to reach
+	 * @return The successful answers received, by request
+	 * @throws RemoteException If too many replicas failed to reach the
+	 * consistency level
+	 */
+	private Map<Future<Listing>, Listing> await(
+			CompletionService<Listing> answers, int replicas,
+			ConsistencyLevel level) throws RemoteException {
+		Map<Future<Listing>, Listing> received =
+				new HashMap<Future<Listing>, Listing>();
+		int required = level.getRequiredAnswers(replicas);
+		int failures = 0;
+		Throwable failure = null;
+
+		try {
+			while (received.size() < required) {
+				Future<Listing> answer = answers.take();
+				try {
+					received.put(answer, answer.get());
+				} catch (ExecutionException e) {
+					failure = e.getCause();
+					// The consistency level can no longer be reached
+					if (++failures > replicas - required) {
+						throw new RemoteException("Only " + received.size()
+								+ " of the " + required
+								+ " required replicas answered", failure);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for replicas",
+					e);
+		}
+
+		return received;
+	}
+
+	/**
+	 * Sends a listing to a replica in the background. Failures are ignored:
+	 * the replica will also be repaired by anti-entropy.
+	 * @param replica The replica to repair
+	 * @param listing The newest listing
+	 */
+	private void repair(final Peer replica, final Listing listing) {
+		this.requests.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws RemoteException {
+				replica.write(listing);
+				return null;
+			}
+		});
+	}
+
+}
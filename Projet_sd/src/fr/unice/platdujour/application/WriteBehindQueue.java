@@ -0,0 +1,341 @@
+package fr.unice.platdujour.application;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import fr.unice.platdujour.application.PeerPool.Operation;
+import fr.unice.platdujour.chord.Identifier;
+import fr.unice.platdujour.chord.Key;
+import fr.unice.platdujour.chord.Listing;
+import fr.unice.platdujour.chord.Peer;
+
+/**
+ * This class writes listings in the background, in groups. The listings are 
+ * queued by the clients, then collected until a group is full or the oldest 
+ * listing has waited for {@link #FLUSH_DELAY} milliseconds. Each peer is then 
+ * sent the listings of the group that it manages, in requests of at most 
+ * {@link #MAX_BATCH_SIZE} listings, and the requests are sent in parallel. 
+ * The queue is bounded: when the peers cannot keep up, the clients wait for 
+ * room in the queue.
+ * <p>
+ * The peer that manages a key is found in a cache of the peers met so far, 
+ * so that a lookup is only needed when a listing has been sent to a peer 
+ * that does not manage its key. The cache is filled by walking the ring when 
+ * it is empty.
+ */
+public class WriteBehindQueue {
+
+	/** Maximum number of listings waiting to be written */
+	private static final int MAX_PENDING = 10000;
+
+	/** Maximum number of listings written by a single group */
+	private static final int MAX_GROUP_SIZE = 500;
+
+	/** Maximum number of listings sent to a peer in a single request, so 
+	 * that the request completes well within the timeout of the remote calls. 
+	 * The listings of a group managed by the same peer are split into several 
+	 * requests if needed. */
+	private static final int MAX_BATCH_SIZE = 100;
+
+	/** Maximum time, in milliseconds, a listing waits for a group to fill */
+	private static final long FLUSH_DELAY = 50;
+
+	/** Maximum number of times a listing is sent before its failure is 
+	 * reported */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/** Maximum number of peers visited when walking the ring to fill the 
+	 * cache of the peers */
+	private static final int MAX_WALK_LENGTH = 256;
+
+	/** Entry peers used to look up the peers that manage the keys */
+	private final PeerPool pool;
+
+	/** Listener told about the outcome of the writes */
+	private final BatchListener listener;
+
+	/** Listings waiting to be written */
+	private final BlockingQueue<Listing> pending;
+
+	/** Thread pool that sends the groups to the peers */
+	private final ExecutorService requests;
+
+	/** Peers met so far, by identifier. The peer that manages a key is 
+	 * expected to be the first one whose identifier is not lower. This map is 
+	 * only used by the flusher thread. */
+	private final TreeMap<Identifier, Peer> owners;
+
+	/** Number of queued listings whose outcome has not been reported yet */
+	private int unreported;
+
+
+	public WriteBehindQueue(PeerPool pool, BatchListener listener) {
+		this.pool = pool;
+		this.listener = listener;
+		this.pending = new ArrayBlockingQueue<Listing>(MAX_PENDING);
+		this.requests = 
+				Executors.newCachedThreadPool(new DaemonThreadFactory());
+		this.owners = new TreeMap<Identifier, Peer>();
+
+		new DaemonThreadFactory().newThread(new Runnable() {
+			@Override
+			public void run() {
+				WriteBehindQueue.this.flushContinuously();
+			}
+		}).start();
+	}
+
+	/**
+	 * Queues a listing to be written. This method waits while the queue is 
+	 * full.
+	 * @param listing The listing to write
+	 * @throws InterruptedException If interrupted while waiting for room in 
+	 * the queue
+	 */
+	public void add(Listing listing) throws InterruptedException {
+		synchronized (this) {
+			this.unreported++;
+		}
+
+		try {
+			this.pending.put(listing);
+		} catch (InterruptedException e) {
+			this.reported(1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until the outcome of all the queued listings has been reported.
+	 * @throws InterruptedException
+	 */
+	public synchronized void flush() throws InterruptedException {
+		while (this.unreported > 0) {
+			this.wait();
+		}
+	}
+
+	/**
+	 * Collects the queued listings into groups and writes them, until the 
+	 * thread is interrupted.
+	 */
+	private void flushContinuously() {
+		try {
+			while (true) {
+				List<Listing> group = new ArrayList<Listing>();
+				group.add(this.pending.take());
+				long deadline = System.currentTimeMillis() + FLUSH_DELAY;
+
+				while (group.size() < MAX_GROUP_SIZE) {
+					Listing listing = this.pending.poll(
+							deadline - System.currentTimeMillis(), 
+							TimeUnit.MILLISECONDS);
+					if (listing == null) {
+						break;
+					}
+					group.add(listing);
+				}
+
+				this.write(group);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends each peer the listings of a group that it manages, and reports 
+	 * the outcome of each request. The listings that have been sent to the 
+	 * wrong peer, or to a peer that failed, are sent again after looking up 
+	 * their key.
+	 * @param listings The listings of the group
+	 * @throws InterruptedException
+	 */
+	private void write(List<Listing> listings) throws InterruptedException {
+		RemoteException failure = null;
+
+		if (this.owners.isEmpty()) {
+			try {
+				this.walkRing();
+			} catch (RemoteException e) {
+				// The peers met so far are kept, the others are looked up
+			}
+		}
+
+		for (int i = 0 ; i < MAX_ATTEMPTS && !listings.isEmpty() ; i++) {
+			List<Listing> retries = new ArrayList<Listing>();
+			// The batch being filled for each peer, and all the batches to 
+			// send along with their peers
+			Map<Peer, List<Listing>> batches = 
+					new HashMap<Peer, List<Listing>>();
+			List<Peer> batchOwners = new ArrayList<Peer>();
+			List<List<Listing>> sentBatches = new ArrayList<List<Listing>>();
+
+			for (Listing listing : listings) {
+				try {
+					// The cache is not trusted for the listings sent again
+					Peer owner = this.findOwner(listing.getRestaurant(), 
+							i > 0);
+					List<Listing> batch = batches.get(owner);
+					if (batch == null || batch.size() == MAX_BATCH_SIZE) {
+						batch = new ArrayList<Listing>();
+						batches.put(owner, batch);
+						batchOwners.add(owner);
+						sentBatches.add(batch);
+					}
+					batch.add(listing);
+				} catch (RemoteException e) {
+					failure = e;
+					retries.add(listing);
+				}
+			}
+
+			List<Future<List<Listing>>> answers = 
+					new ArrayList<Future<List<Listing>>>();
+			for (int j = 0 ; j < sentBatches.size() ; j++) {
+				final Peer owner = batchOwners.get(j);
+				final List<Listing> batch = sentBatches.get(j);
+				answers.add(this.requests.submit(
+						new Callable<List<Listing>>() {
+					@Override
+					public List<Listing> call() throws RemoteException {
+						return owner.writeAll(batch);
+					}
+				}));
+			}
+
+			for (int j = 0 ; j < answers.size() ; j++) {
+				List<Listing> batch = sentBatches.get(j);
+				try {
+					Set<String> rejected = new HashSet<String>();
+					for (Listing listing : answers.get(j).get()) {
+						rejected.add(listing.getRestaurant());
+					}
+
+					List<Listing> committed = new ArrayList<Listing>();
+					for (Listing listing : batch) {
+						if (rejected.contains(listing.getRestaurant())) {
+							retries.add(listing);
+						} else {
+							committed.add(listing);
+						}
+					}
+					if (!committed.isEmpty()) {
+						// A failing listener must neither stop the flusher 
+						// nor leave the writes unreported
+						try {
+							this.listener.committed(committed);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						} finally {
+							this.reported(committed.size());
+						}
+					}
+				} catch (ExecutionException e) {
+					failure = e.getCause() instanceof RemoteException 
+							? (RemoteException) e.getCause()
+							: new RemoteException("Write failed", e.getCause());
+					this.owners.values().remove(batchOwners.get(j));
+					retries.addAll(batch);
+				}
+			}
+
+			listings = retries;
+		}
+
+		if (!listings.isEmpty()) {
+			try {
+				this.listener.failed(listings, failure != null ? failure 
+						: new RemoteException("No peer manages the listings"));
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				this.reported(listings.size());
+			}
+		}
+	}
+
+	/**
+	 * Finds the peer that manages the key of a restaurant.
+	 * @param restaurant The name of the restaurant
+	 * @param lookup true to look up the key in the network, false to use the 
+	 * cache of the peers met so far when it is not empty
+	 * @return The peer that manages the key, as far as it is known
+	 * @throws RemoteException If the lookup failed
+	 */
+	private Peer findOwner(String restaurant, boolean lookup) 
+			throws RemoteException {
+		final Key key = new Key(restaurant);
+
+		if (!lookup && !this.owners.isEmpty()) {
+			Entry<Identifier, Peer> owner = this.owners.ceilingEntry(key);
+			return (owner != null ? owner : this.owners.firstEntry())
+					.getValue();
+		}
+
+		Peer owner = this.pool.execute(new Operation<Peer>() {
+			@Override
+			public Peer execute(Peer entryPeer) throws RemoteException {
+				return entryPeer.findSuccessor(key);
+			}
+		});
+		Identifier ownerId = owner.getId();
+
+		// A peer that has been relocated is only kept at its new identifier
+		this.owners.values().remove(owner);
+		this.owners.put(ownerId, owner);
+		return owner;
+	}
+
+	/**
+	 * Adds to the cache the peers met by walking the ring from an entry peer, 
+	 * at most {@link #MAX_WALK_LENGTH} of them.
+	 * @throws RemoteException If the walk could not be completed
+	 */
+	private void walkRing() throws RemoteException {
+		Peer landmarkPeer = this.pool.execute(new Operation<Peer>() {
+			@Override
+			public Peer execute(Peer entryPeer) throws RemoteException {
+				// The entry peer is checked before the walk starts from it
+				entryPeer.getId();
+				return entryPeer;
+			}
+		});
+		Peer peer = landmarkPeer;
+
+		for (int i = 0 ; i < MAX_WALK_LENGTH ; i++) {
+			this.owners.put(peer.getId(), peer);
+			peer = peer.getSuccessor();
+			if (peer.equals(landmarkPeer)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Records that the outcome of some listings has been reported.
+	 * @param count The number of listings
+	 */
+	private synchronized void reported(int count) {
+		this.unreported -= count;
+		if (this.unreported == 0) {
+			this.notifyAll();
+		}
+	}
+
+}
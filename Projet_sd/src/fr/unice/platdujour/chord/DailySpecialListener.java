@@ -0,0 +1,25 @@
+package fr.unice.platdujour.chord;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * This interface is implemented by the clients that watch the daily special 
+ * of a restaurant. It is a Remote object as it is called by the peer that 
+ * manages the restaurant key.
+ */
+public interface DailySpecialListener extends Remote {
+
+	/**
+	 * Called when the daily special of a watched restaurant has changed. When 
+	 * it changes several times in a short period, only the last daily special 
+	 * is notified.
+	 * @param restaurant Name of the restaurant
+	 * @param dailySpecial Name of the new daily special, or null if the daily 
+	 * special of the restaurant has expired
+	 * @throws RemoteException
+	 */
+    void dailySpecialChanged(String restaurant, String dailySpecial) 
+    		throws RemoteException;
+
+}
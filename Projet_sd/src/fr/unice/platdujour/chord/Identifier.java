@@ -59,6 +59,33 @@ public class Identifier implements Comparable<Identifier>, Serializable {
         }
     }
 
+    /**
+     * @return The value of the identifier
+     */
+    int getValue() {
+        return this.value;
+    }
+
+    /**
+     * Computes the distance from an identifier to this one, walking the ring 
+     * clockwise.
+     * @param origin Identifier from which the distance is measured
+     * @return The distance, between 0 (same identifier) and MAX_VALUE
+     */
+    public long distanceFrom(Identifier origin) {
+        long distance = (long) this.value - origin.value;
+        return distance < 0 ? distance + MAX_VALUE + 1 : distance;
+    }
+
+    /**
+     * @param distance A distance, walking the ring clockwise
+     * @return The identifier at the specified distance from this one
+     */
+    Identifier add(long distance) {
+        return new Identifier((int) ((this.value + distance) 
+                % (MAX_VALUE + 1L)));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,27 @@
+package fr.unice.platdujour.chord;
+
+/**
+ * This interface emulates the network latency between peers that run in the 
+ * same JVM, so that the routing of the lookups can be tested locally as if 
+ * the peers were spread over several racks. The latency of a link is added 
+ * to the lookups forwarded along it and to the measurements of its round 
+ * trip time.
+ */
+public interface LinkLatency {
+
+	/** No latency is added: the real network latency is used alone */
+	LinkLatency NONE = new LinkLatency() {
+		@Override
+		public long getRoundTripTime(Identifier from, Identifier to) {
+			return 0;
+		}
+	};
+
+	/**
+	 * @param from The identifier of the peer that sends a request
+	 * @param to The identifier of the peer that receives the request
+	 * @return The round trip time to add to the request, in milliseconds
+	 */
+    long getRoundTripTime(Identifier from, Identifier to);
+
+}
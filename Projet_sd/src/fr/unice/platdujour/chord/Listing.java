@@ -0,0 +1,145 @@
+package fr.unice.platdujour.chord;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Class that represents an entry stored by a peer: the daily special of a
+ * restaurant, along with the date after which it is no longer valid. When
+ * several peers store different listings for the same restaurant, the one
+ * with the highest version is kept.
+ */
+public class Listing implements Serializable {
+
+	/** Default serialization ID */
+	private static final long serialVersionUID = 1L;
+
+	/** Expiration date of a listing that never expires */
+	public static final long NEVER = Long.MAX_VALUE;
+
+	/** Name of the restaurant */
+	private final String restaurant;
+
+	/** Name of the daily special offered by the restaurant */
+	private final String dailySpecial;
+
+	/** Date, in milliseconds since the epoch, from which the listing is
+	 * expired */
+	private final long expiration;
+
+	/** Version of the listing: the date, in milliseconds since the epoch, at
+	 * which it was written, as given by the {@link VersionClock} of the peer 
+	 * that manages the restaurant */
+	private final long version;
+
+
+	public Listing(String restaurant, String dailySpecial, long expiration,
+			long version) {
+		this.restaurant = restaurant;
+		this.dailySpecial = dailySpecial;
+		this.expiration = expiration;
+		this.version = version;
+	}
+
+	/**
+	 * Computes the expiration date of a listing.
+	 * @param now The date at which the listing is written, in milliseconds 
+	 * since the epoch
+	 * @param ttl The time to live of the listing, in milliseconds
+	 * @return The expiration date of the listing, or {@link #NEVER} if the 
+	 * time to live goes beyond the representable dates
+	 */
+	public static long expiration(long now, long ttl) {
+		return ttl > NEVER - now ? NEVER : now + ttl;
+	}
+
+	/**
+	 * @return The name of the restaurant
+	 */
+	public String getRestaurant() {
+		return this.restaurant;
+	}
+
+	/**
+	 * @return The name of the daily special offered by the restaurant
+	 */
+	public String getDailySpecial() {
+		return this.dailySpecial;
+	}
+
+	/**
+	 * @return The date, in milliseconds since the epoch, from which the
+	 * listing is expired, or {@link #NEVER}
+	 */
+	public long getExpiration() {
+		return this.expiration;
+	}
+
+	/**
+	 * @return The version of the listing: the date, in milliseconds since the
+	 * epoch, at which it was written, as given by the {@link VersionClock} of 
+	 * the peer that manages the restaurant
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @param other Another listing for the same restaurant
+	 * @return true if this listing must replace the other one
+	 */
+	public boolean isNewerThan(Listing other) {
+		if (this.version != other.version) {
+			return this.version > other.version;
+		}
+		// The versions given by a clock strictly increase, so only listings 
+		// versioned by different peers, while the restaurant moved from one 
+		// to the other, can have the same version. They are ordered 
+		// arbitrarily, but in the same way by all the peers.
+		return this.digest() > other.digest();
+	}
+
+	/**
+	 * Computes a hash of the whole content of the listing. Equal listings 
+	 * have the same digest, and different listings almost certainly have 
+	 * different ones.
+	 * @return The first 64 bits of the SHA-1 hash of the listing
+	 */
+	public long digest() {
+		MessageDigest md = null;
+
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		}
+
+		Charset utf8 = Charset.forName("UTF-8");
+		md.update(this.restaurant.getBytes(utf8));
+		md.update((byte) 0);
+		md.update(this.dailySpecial.getBytes(utf8));
+		md.update(ByteBuffer.allocate(16).putLong(this.expiration)
+				.putLong(this.version).array());
+		return ByteBuffer.wrap(md.digest()).getLong();
+	}
+
+	/**
+	 * @param now The current date, in milliseconds since the epoch
+	 * @return true if the listing is no longer valid at the specified date
+	 */
+	public boolean isExpired(long now) {
+		return now >= this.expiration;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "(" + this.restaurant + ";" + this.dailySpecial + ")";
+	}
+
+}
@@ -0,0 +1,215 @@
+package fr.unice.platdujour.chord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class summarizes the entries stored by a peer so that two peers can
+ * find the entries on which they disagree without exchanging them all. It is
+ * a binary tree over the identifier space of the ring: the root covers the
+ * whole ring, each node covers half of the identifiers of its parent, and
+ * each leaf covers a single identifier. The digest of a node is the sum of
+ * the digests of the entries whose key it covers, which lets an entry be
+ * added or removed by updating only the nodes on its path.
+ * <p>
+ * A node is addressed by a long made of its level (0 for the root) in the
+ * upper 32 bits, and of the index of the node in its level in the lower 32
+ * bits. This class is not thread-safe.
+ */
+class MerkleTree {
+
+	/** Level of the leaves of the tree */
+	private static final int LEAF_LEVEL = Identifier.NB_BITS;
+
+	/** Digests of the nodes. Nodes whose digest is 0 are not stored. */
+	private final Map<Long, Long> digests;
+
+	/** Restaurants whose key is covered by each leaf */
+	private final Map<Long, Set<String>> leaves;
+
+
+	MerkleTree() {
+		this.digests = new HashMap<Long, Long>();
+		this.leaves = new HashMap<Long, Set<String>>();
+	}
+
+	/**
+	 * Adds an entry to the tree.
+	 * @param listing The entry to add
+	 */
+	void add(Listing listing) {
+		Identifier key = new Key(listing.getRestaurant());
+		long leaf = node(LEAF_LEVEL, key.getValue());
+
+		Set<String> restaurants = this.leaves.get(leaf);
+		if (restaurants == null) {
+			restaurants = new HashSet<String>();
+			this.leaves.put(leaf, restaurants);
+		}
+		restaurants.add(listing.getRestaurant());
+
+		this.update(key, listing.digest());
+	}
+
+	/**
+	 * Removes an entry from the tree.
+	 * @param listing The entry to remove, which must have been added before
+	 */
+	void remove(Listing listing) {
+		Identifier key = new Key(listing.getRestaurant());
+		long leaf = node(LEAF_LEVEL, key.getValue());
+
+		Set<String> restaurants = this.leaves.get(leaf);
+		restaurants.remove(listing.getRestaurant());
+		if (restaurants.isEmpty()) {
+			this.leaves.remove(leaf);
+		}
+
+		this.update(key, -listing.digest());
+	}
+
+	/**
+	 * @param nodes Addresses of nodes
+	 * @return The digests of the specified nodes, in the same order
+	 */
+	long[] getDigests(long[] nodes) {
+		long[] digests = new long[nodes.length];
+
+		for (int i = 0 ; i < nodes.length ; i++) {
+			Long digest = this.digests.get(nodes[i]);
+			digests[i] = digest == null ? 0 : digest;
+		}
+
+		return digests;
+	}
+
+	/**
+	 * @param leaf Address of a leaf
+	 * @return The restaurants whose key is covered by the leaf
+	 */
+	Set<String> getRestaurants(long leaf) {
+		Set<String> restaurants = this.leaves.get(leaf);
+		return restaurants == null ? new HashSet<String>()
+				: new HashSet<String>(restaurants);
+	}
+
+	/**
+	 * Adds a value to the digests of all the nodes whose range contains the
+	 * specified key.
+	 * @param key
+	 * @param delta
+	 */
+	private void update(Identifier key, long delta) {
+		for (int level = 0 ; level <= LEAF_LEVEL ; level++) {
+			long node = node(level, key.getValue() >>> (LEAF_LEVEL - level));
+			Long digest = this.digests.get(node);
+			long newDigest = (digest == null ? 0 : digest) + delta;
+
+			if (newDigest == 0) {
+				this.digests.remove(node);
+			} else {
+				this.digests.put(node, newDigest);
+			}
+		}
+	}
+
+	/**
+	 * Computes the smallest set of nodes that exactly covers a range of
+	 * identifiers.
+	 * @param from The identifier that starts the range (excluded)
+	 * @param to The identifier that ends the range (included). If it is equal
+	 * to from, the range is the whole ring.
+	 * @return The addresses of the nodes that cover the range
+	 */
+	static List<Long> cover(Identifier from, Identifier to) {
+		List<Long> nodes = new ArrayList<Long>();
+		long start = from.getValue() + 1L;
+		long end = to.getValue();
+
+		if (from.equals(to)) {
+			nodes.add(node(0, 0));
+		} else if (start <= end) {
+			cover(node(0, 0), start, end, nodes);
+		} else {
+			// The range wraps around the end of the identifier space
+			cover(node(0, 0), start, Identifier.MAX_VALUE, nodes);
+			cover(node(0, 0), 0, end, nodes);
+		}
+
+		return nodes;
+	}
+
+	/**
+	 * Adds to a list the nodes under the specified one that exactly cover a
+	 * range of identifiers.
+	 * @param node The node from which the range is covered
+	 * @param start The first identifier of the range
+	 * @param end The last identifier of the range
+	 * @param nodes The list to which nodes are added
+	 */
+	private static void cover(long node, long start, long end,
+			List<Long> nodes) {
+		int shift = LEAF_LEVEL - level(node);
+		long nodeStart = index(node) << shift;
+		long nodeEnd = ((index(node) + 1) << shift) - 1;
+
+		if (nodeEnd < start || nodeStart > end) {
+			return;
+		}
+		if (start <= nodeStart && nodeEnd <= end) {
+			nodes.add(node);
+			return;
+		}
+		for (long child : children(node)) {
+			cover(child, start, end, nodes);
+		}
+	}
+
+	/**
+	 * @param node Address of a node that is not a leaf
+	 * @return The addresses of the two children of the node
+	 */
+	static long[] children(long node) {
+		int level = level(node) + 1;
+		long index = index(node) << 1;
+		return new long[] { node(level, index), node(level, index + 1) };
+	}
+
+	/**
+	 * @param node Address of a node
+	 * @return true if the node is a leaf
+	 */
+	static boolean isLeaf(long node) {
+		return level(node) == LEAF_LEVEL;
+	}
+
+	/**
+	 * @param level
+	 * @param index
+	 * @return The address of the node at the specified level and index
+	 */
+	private static long node(int level, long index) {
+		return ((long) level << 32) | index;
+	}
+
+	/**
+	 * @param node Address of a node
+	 * @return The level of the node
+	 */
+	private static int level(long node) {
+		return (int) (node >>> 32);
+	}
+
+	/**
+	 * @param node Address of a node
+	 * @return The index of the node in its level
+	 */
+	private static long index(long node) {
+		return node & 0xFFFFFFFFL;
+	}
+
+}
@@ -0,0 +1,63 @@
+package fr.unice.platdujour.chord;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class that represents the content stored by a peer for a range of
+ * identifiers. It is used to move this content from a peer to another one
+ * when the peer that manages the range changes.
+ */
+public class Partition implements Serializable {
+
+	/** Default serialization ID */
+	private static final long serialVersionUID = 1L;
+
+	/** Listings whose restaurant key belongs to the range, by restaurant */
+	private final Map<String, Listing> listings;
+
+	/** Reverse index entries whose daily special key belongs to the range */
+	private final Map<String, Set<String>> specials;
+
+	/** Listeners of the restaurants whose key belongs to the range */
+	private final Map<String, Set<DailySpecialListener>> watchers;
+
+
+	public Partition() {
+		this.listings = new HashMap<String, Listing>();
+		this.specials = new HashMap<String, Set<String>>();
+		this.watchers = new HashMap<String, Set<DailySpecialListener>>();
+	}
+
+	/**
+	 * @return The listings of the partition, by restaurant
+	 */
+	public Map<String, Listing> getListings() {
+		return this.listings;
+	}
+
+	/**
+	 * @return The restaurants that serve each daily special of the partition
+	 */
+	public Map<String, Set<String>> getSpecials() {
+		return this.specials;
+	}
+
+	/**
+	 * @return The listeners of each watched restaurant of the partition
+	 */
+	public Map<String, Set<DailySpecialListener>> getWatchers() {
+		return this.watchers;
+	}
+
+	/**
+	 * @return true if the partition contains nothing
+	 */
+	public boolean isEmpty() {
+		return this.listings.isEmpty() && this.specials.isEmpty()
+				&& this.watchers.isEmpty();
+	}
+
+}
@@ -2,6 +2,10 @@ package fr.unice.platdujour.chord;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 
 /**
  * This interface declares the main operations that a peer sustain. A peer is 
@@ -26,6 +30,23 @@ public interface Peer extends Remote {
      */
     void join(Peer landmarkPeer) throws RemoteException;
 
+    /**
+     * Makes the peer part of a network whose peers are all known in advance, 
+     * by setting its links directly instead of joining through a landmark 
+     * peer. This method must be called on each peer of a new network, 
+     * before any entry is stored.
+     * @param predecessor The peer that is just before in the virtual ring
+     * @param successorList The first peers after this one in the virtual 
+     * ring, starting with the successor
+     * @param fingers The i-th element is the peer that manages the identifier 
+     * at distance 2^i from this peer, or null if it is this peer
+     * @param fingerIds The identifiers of the fingers, in the same order
+     * @throws RemoteException
+     */
+    void bootstrap(Peer predecessor, List<Peer> successorList, 
+    		List<Peer> fingers, List<Identifier> fingerIds) 
+    				throws RemoteException;
+
     /**
      * This method finds the peer in the network which is responsible for 
      * storing content whose identifier is the specified identifier.
@@ -35,6 +56,19 @@ public interface Peer extends Remote {
      */
     Peer findSuccessor(Identifier id) throws RemoteException;
 
+    /**
+     * Continues a lookup that has been forwarded by another peer, which 
+     * chose this peer as next hop from its routing table.
+     * @param id The identifier for which the peer manager is searched
+     * @param hopId The identifier of this peer, as known by the forwarding 
+     * peer
+     * @return The peer that manages the specified identifier, or null if the 
+     * identifier of this peer is no longer hopId, in which case the 
+     * forwarding peer must choose another hop
+     * @throws RemoteException
+     */
+    Peer forward(Identifier id, Identifier hopId) throws RemoteException;
+
     /**
      * @return The identifier of the peer in the virtual ring
      * @throws RemoteException
@@ -53,6 +87,20 @@ public interface Peer extends Remote {
      */
     Peer getSuccessor() throws RemoteException;
 
+    /**
+     * @return The first peers after the peer in the virtual ring, starting 
+     * with its successor. They are used to replace the successor when it dies.
+     * @throws RemoteException
+     */
+    List<Peer> getSuccessorList() throws RemoteException;
+
+    /**
+     * @return The peers that store the entries managed by the peer: the peer 
+     * itself, followed by the first peers of its successor list
+     * @throws RemoteException
+     */
+    List<Peer> getReplicas() throws RemoteException;
+
     /**
      * Changes the predecessor peer of the peer in the virtual ring
      * @param peer The new predecessor
@@ -82,6 +130,13 @@ public interface Peer extends Remote {
      */
     void notify(Peer peer) throws RemoteException;
 
+    /**
+     * Checks whether the predecessor is still alive, and forgets it if it is 
+     * not. This method should be called periodically.
+     * @throws RemoteException
+     */
+    void checkPredecessor() throws RemoteException;
+
     /**
      * Stores an entry in the local storage structure.
      * @param restaurant Name of the restaurant to store locally.
@@ -90,6 +145,18 @@ public interface Peer extends Remote {
      */
     void put(String restaurant, String dailySpecial) throws RemoteException;
 
+    /**
+     * Stores an entry in the local storage structure for a limited time. Once 
+     * its time to live has elapsed, the entry is no longer returned and is 
+     * eventually removed.
+     * @param restaurant Name of the restaurant to store locally.
+     * @param dailySpecial Name of the daily special to store locally.
+     * @param ttl Time to live of the entry, in milliseconds.
+     * @throws RemoteException
+     */
+    void put(String restaurant, String dailySpecial, long ttl) 
+    		throws RemoteException;
+
     /**
      * Looks for the specified restaurant in the local storage structure and 
      * returns the associated daily special.
@@ -100,7 +167,229 @@ public interface Peer extends Remote {
      * @throws RemoteException
      */
     String get(String restaurant) throws RemoteException;
+
+    /**
+     * Versions a new listing of a restaurant whose key is managed by the 
+     * peer, without storing it. All the listings of a restaurant are 
+     * versioned by the peer that manages it, so that their versions come from 
+     * a single clock: the listing is newer than all the listings of the 
+     * restaurant that the peer has versioned or stored so far.
+     * @param restaurant Name of the restaurant
+     * @param dailySpecial Name of the daily special
+     * @param expiration Expiration date of the listing
+     * @return The versioned listing, to be written on the replicas
+     * @throws RemoteException
+     */
+    Listing stamp(String restaurant, String dailySpecial, long expiration) 
+    		throws RemoteException;
+
+    /**
+     * Stores a listing in the local storage structure, unless a newer listing 
+     * is already stored for the same restaurant. This method is used to write 
+     * the same listing on all the replicas of its key.
+     * @param listing The listing to store, versioned by {@link #stamp}
+     * @return true if the listing is stored, false if it has been rejected 
+     * because a newer listing is already stored
+     * @throws RemoteException
+     */
+    boolean write(Listing listing) throws RemoteException;
+
+    /**
+     * Stores a group of listings. Only the listings whose key is managed by 
+     * the peer are stored, so that a client that routed some listings to the 
+     * wrong peer can send them again to the right one. The listings are 
+     * versioned by the peer as they are stored, in the order of the group, 
+     * and the version they carry is ignored.
+     * @param listings The listings to store
+     * @return The listings that have not been stored because their key is not 
+     * managed by the peer
+     * @throws RemoteException
+     */
+    List<Listing> writeAll(List<Listing> listings) throws RemoteException;
+
+    /**
+     * Looks for the listing of the specified restaurant in the local storage 
+     * structure.
+     * @param restaurant The name of the restaurant that is searched in the 
+     * local storage.
+     * @return The listing of the restaurant, or null if no valid listing is 
+     * found for the restaurant
+     * @throws RemoteException
+     */
+    Listing read(String restaurant) throws RemoteException;
+
+    /**
+     * Returns the first entries managed by the peer whose restaurant name is 
+     * greater than or equal to the specified one, in ascending order of 
+     * restaurant names. The replicas of the entries of other peers are not 
+     * returned, unless the predecessor of the peer is unknown.
+     * @param from The restaurant name from which the scan starts (inclusive)
+     * @param limit The maximum number of entries to return
+     * @return A sorted map from restaurants to their listings that contains 
+     * at most limit entries
+     * @throws IllegalArgumentException If limit is negative
+     * @throws RemoteException
+     */
+    SortedMap<String, Listing> scan(String from, int limit) 
+    		throws RemoteException;
+
+    /**
+     * Adds a restaurant to the local reverse index of a daily special. This 
+     * method is called on the peer that manages the daily special key.
+     * @param dailySpecial Name of the daily special
+     * @param restaurant Name of a restaurant that serves the daily special
+     * @throws RemoteException
+     */
+    void index(String dailySpecial, String restaurant) throws RemoteException;
+
+    /**
+     * Removes a restaurant from the local reverse index of a daily special. 
+     * This method is called on the peer that manages the daily special key 
+     * when the restaurant has changed its daily special.
+     * @param dailySpecial Name of the daily special
+     * @param restaurant Name of a restaurant that no longer serves the daily 
+     * special
+     * @throws RemoteException
+     */
+    void unindex(String dailySpecial, String restaurant) 
+    		throws RemoteException;
+
+    /**
+     * Adds several links to the local reverse index at once.
+     * @param links The names of the restaurants to add, by daily special
+     * @throws RemoteException
+     */
+    void indexAll(Map<String, Set<String>> links) throws RemoteException;
+
+    /**
+     * Removes several links from the local reverse index at once.
+     * @param links The names of the restaurants to remove, by daily special
+     * @throws RemoteException
+     */
+    void unindexAll(Map<String, Set<String>> links) throws RemoteException;
+
+    /**
+     * Looks for the specified daily special in the local reverse index.
+     * @param dailySpecial Name of the daily special
+     * @return The names of the restaurants that serve the daily special, or an 
+     * empty set if no restaurant serves it
+     * @throws RemoteException
+     */
+    Set<String> getRestaurants(String dailySpecial) throws RemoteException;
+
+    /**
+     * Subscribes a listener to the changes of the daily special of a 
+     * restaurant. This method is called on the peer that manages the 
+     * restaurant key, which then pushes the changes to the listener.
+     * @param restaurant Name of the restaurant to watch
+     * @param listener The listener to notify
+     * @throws RemoteException
+     */
+    void watch(String restaurant, DailySpecialListener listener) 
+    		throws RemoteException;
+
+    /**
+     * Unsubscribes a listener from the changes of the daily special of a 
+     * restaurant.
+     * @param restaurant Name of the watched restaurant
+     * @param listener The listener to no longer notify
+     * @throws RemoteException
+     */
+    void unwatch(String restaurant, DailySpecialListener listener) 
+    		throws RemoteException;
     
+    /**
+     * Removes from the local storage structures the content whose key belongs 
+     * to a range of identifiers, and returns it.
+     * @param from The identifier that starts the range (excluded)
+     * @param to The identifier that ends the range (included). If it is equal 
+     * to from, the range is the whole ring.
+     * @return The content that has been removed
+     * @throws RemoteException
+     */
+    Partition handOff(Identifier from, Identifier to) throws RemoteException;
+
+    /**
+     * Adds some content to the local storage structures. This method is 
+     * called when the peer becomes responsible for the keys of the content.
+     * @param partition The content handed by the previous responsible peer
+     * @throws RemoteException
+     */
+    void takeOver(Partition partition) throws RemoteException;
+
+    /**
+     * Returns the load of the peer. The request counter of the peer is reset 
+     * by this call, so that consecutive calls measure the load between them.
+     * @return The load of the peer
+     * @throws RemoteException
+     */
+    PeerLoad getLoad() throws RemoteException;
+
+    /**
+     * Computes the identifier that splits the entries stored by the peer in 
+     * two halves.
+     * @return An identifier between the identifier of the predecessor and the 
+     * identifier of the peer (both excluded), or null if the range of the 
+     * peer cannot be split
+     * @throws RemoteException
+     */
+    Identifier getSplitPoint() throws RemoteException;
+
+    /**
+     * Makes the peer leave the ring and join it again with another 
+     * identifier. The entries of the peer are handed to its successor, and 
+     * the peer copies from its new successor the entries it is responsible 
+     * for at its new position. Only one peer must be relocated at a time.
+     * @param newId The new identifier of the peer. No other peer must have 
+     * this identifier.
+     * @throws RemoteException
+     */
+    void relocate(Identifier newId) throws RemoteException;
+
+    /**
+     * Returns the digests of some nodes of the Merkle tree that summarizes the 
+     * local storage structure. Two peers store the same entries for the 
+     * range of identifiers covered by a node if the node has the same digest 
+     * on both peers.
+     * @param nodes The addresses of the nodes
+     * @return The digests of the nodes, in the same order
+     * @throws RemoteException
+     */
+    long[] getDigests(long[] nodes) throws RemoteException;
+
+    /**
+     * Returns the listings stored locally whose key is covered by some leaves 
+     * of the Merkle tree that summarizes the local storage structure.
+     * @param leaves The addresses of the leaves
+     * @return The listings that have not expired
+     * @throws RemoteException
+     */
+    List<Listing> getListings(long[] leaves) throws RemoteException;
+
+    /**
+     * Stores the specified listings locally, unless a newer listing is 
+     * already stored for the same restaurant. As for a write, the listeners 
+     * are notified of the daily specials that change, and the reverse index 
+     * is updated if the peer manages the restaurant.
+     * @param listings The listings sent by another peer
+     * @throws RemoteException
+     */
+    void repair(List<Listing> listings) throws RemoteException;
+
+    /**
+     * Replaces the local reverse index entries whose key belongs to a range 
+     * of identifiers by the ones of the peer that manages the range. The 
+     * reverse index is thus replicated like the listings, and is not lost 
+     * when the peer that manages it fails.
+     * @param from The identifier that starts the range (excluded)
+     * @param to The identifier that ends the range (included)
+     * @param specials The reverse index entries of the range, from daily 
+     * specials to the restaurants that serve them
+     * @throws RemoteException
+     */
+    void replicateSpecials(Identifier from, Identifier to, 
+    		Map<String, Set<String>> specials) throws RemoteException;
+
     /** 
      * Replaces the toString method to have a remote description of the peer.
      * @return a String describing the peer state
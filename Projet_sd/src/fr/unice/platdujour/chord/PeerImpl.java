@@ -2,12 +2,27 @@ package fr.unice.platdujour.chord;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of the {@link Peer} API.
@@ -18,40 +33,227 @@ Peer {
 	/** Default serialization ID */
 	private static final long serialVersionUID = 1L;
 
-	/** Identifier of the peer in the virtual ring */
-	private final Identifier id;
+	/** Period, in milliseconds, between two sweeps of expired entries */
+	private static final long SWEEP_PERIOD = 1000;
+
+	/** Maximum number of expired entries removed by a single sweep */
+	private static final int SWEEP_BATCH_SIZE = 100;
+
+	/** Number of successors that a peer keeps track of, so that it can fail 
+	 * over to the next one when its successor dies */
+	static final int SUCCESSOR_LIST_SIZE = 3;
+
+	/** Number of peers that store each entry: the peer that manages its key, 
+	 * and the next peers of its successor list */
+	private static final int REPLICATION_FACTOR = 3;
+
+	/** Period, in milliseconds, between two synchronizations of the entries 
+	 * of the peer with their replicas */
+	private static final long SYNC_PERIOD = 2000;
+
+	/** Period, in milliseconds, between two notifications of the listeners. 
+	 * The changes made in the meantime to the same restaurant are coalesced 
+	 * into a single notification. */
+	private static final long NOTIFICATION_PERIOD = 200;
+
+	/** Number of locks that serialize the updates of the reverse index. The 
+	 * restaurants are spread over them by hash code. */
+	private static final int NB_INDEX_LOCKS = 64;
+
+	/** Number of fingers refreshed at each stabilization of the peer */
+	private static final int FINGERS_PER_ROUND = 4;
+
+	/** Weight of the previous estimate in the smoothed round trip time of a 
+	 * contact: each measure accounts for 1/RTT_SMOOTHING of the estimate */
+	private static final int RTT_SMOOTHING = 4;
+
+	/**
+	 * A peer of the routing table, with the information measured during the 
+	 * last stabilizations.
+	 */
+	private static class Contact {
+
+		/** Identifier of the peer */
+		private final Identifier id;
+
+		/** Smoothed round trip time to the peer, in nanoseconds, or 0 if it 
+		 * has not been measured yet */
+		private final long rtt;
+
+
+		public Contact(Identifier id, long rtt) {
+			this.id = id;
+			this.rtt = rtt;
+		}
+
+	}
+
+	/** Identifier of the peer in the virtual ring. It only changes when the 
+	 * peer is relocated to balance the load of the ring. */
+	private volatile Identifier id;
 
 	/** Local storage for entries that have an identifier that is managed by  
-	 * the peer */
-	private final Map<String, String> directory;
+	 * the peer. Entries are kept sorted by restaurant name so that range 
+	 * scans do not need to sort the whole directory. */
+	private final SortedMap<String, Listing> directory;
+
+	/** Entries of the directory that have a time to live, ordered by 
+	 * expiration date. An entry is removed from this set as soon as it is 
+	 * replaced or evicted, so its size is bounded by the size of the 
+	 * directory. */
+	private final TreeSet<Listing> expirations;
+
+	/** Daily specials that could not be unindexed yet, by restaurant. They 
+	 * are unindexed again at the next sweep. */
+	private final Map<String, Set<String>> unindexRetries;
+
+	/** Locks that serialize the updates of the reverse index of the same 
+	 * restaurant */
+	private final ReentrantLock[] indexLocks;
+
+	/** Summary of the directory, used to find the entries on which the peer 
+	 * and its replicas disagree */
+	private final MerkleTree merkleTree;
+
+	/** Reverse index from daily specials to the restaurants that serve them, 
+	 * for the daily specials that have an identifier that is managed by the 
+	 * peer, along with the replicas of the reverse index of its predecessors */
+	private final Map<String, Set<String>> specials;
+
+	/** Listeners of the restaurants that have an identifier that is managed 
+	 * by the peer. This map also guards {@link #notifications}. */
+	private final Map<String, Set<DailySpecialListener>> watchers;
+
+	/** Daily specials that have changed since the listeners were last 
+	 * notified, by restaurant. A null daily special means that it expired. */
+	private final Map<String, String> notifications;
 
 	/** Peer that is just before in the virtual ring */
-	private Peer predecessor;
+	private volatile Peer predecessor;
 
 	/** Peer that is just after in the virtual ring */
-	private Peer successor;
+	private volatile Peer successor;
+
+	/** The first peers after this one in the virtual ring, starting with the 
+	 * successor */
+	private final List<Peer> successorList;
+
+	/** The i-th finger is the peer that manages the identifier at distance 
+	 * 2^i from this peer, or null if it is unknown or is this peer */
+	private final Peer[] fingers;
+
+	/** Index of the next finger to refresh */
+	private int nextFinger;
+
+	/** The peers of the routing table (fingers and successor list) that 
+	 * answered the last measure of their round trip time */
+	private final ConcurrentMap<Peer, Contact> contacts;
+
+	/** Latency added to the links of the peer, to emulate a network */
+	private final LinkLatency linkLatency;
+
+	/** Thread pool that runs the periodic maintenance tasks of the peer */
+	private final ScheduledExecutorService maintenance;
+
+	/** Thread that notifies the listeners, so that slow or dead clients do 
+	 * not delay the maintenance of the ring */
+	private final ScheduledExecutorService notifier;
+
+	/** Lookups in progress, shared by the concurrent requests for the same 
+	 * identifier */
+	private final SingleFlight<Identifier, Peer> lookups;
+
+	/** Number of requests served since the load of the peer was last read */
+	private final AtomicLong requests;
+
+	/** Versions the listings written to the peer without a version */
+	private final VersionClock clock;
 
 
 	public PeerImpl(Identifier id) throws RemoteException {
+		this(id, LinkLatency.NONE);
+	}
+
+	public PeerImpl(Identifier id, LinkLatency linkLatency) 
+			throws RemoteException {
+		// The stubs of the peer give up on calls that do not complete in time
+		super(0, new TimeoutSocketFactory(), null);
 		this.id = id;
 		this.predecessor = this;
 		this.successor = this;
-		this.directory = new HashMap<String, String>();
+		this.successorList = new ArrayList<Peer>();
+		this.fingers = new Peer[Identifier.NB_BITS];
+		this.contacts = new ConcurrentHashMap<Peer, Contact>();
+		this.linkLatency = linkLatency;
+		this.directory = new TreeMap<String, Listing>();
+		// The directory holds a single listing per restaurant, so the 
+		// restaurant tells apart the listings that expire at the same date
+		this.expirations = new TreeSet<Listing>(new Comparator<Listing>() {
+			@Override
+			public int compare(Listing l1, Listing l2) {
+				int comparison = 
+						Long.compare(l1.getExpiration(), l2.getExpiration());
+				return comparison != 0 ? comparison 
+						: l1.getRestaurant().compareTo(l2.getRestaurant());
+			}
+		});
+		this.unindexRetries = new HashMap<String, Set<String>>();
+		this.indexLocks = new ReentrantLock[NB_INDEX_LOCKS];
+		for (int i = 0 ; i < NB_INDEX_LOCKS ; i++) {
+			this.indexLocks[i] = new ReentrantLock();
+		}
+		this.merkleTree = new MerkleTree();
+		this.specials = new HashMap<String, Set<String>>();
+		this.watchers = new HashMap<String, Set<DailySpecialListener>>();
+		this.notifications = new HashMap<String, String>();
+		this.lookups = new SingleFlight<Identifier, Peer>();
+		this.requests = new AtomicLong();
+		this.clock = new VersionClock();
 
-		ScheduledExecutorService threadPool =
-				Executors.newScheduledThreadPool(1);
-		threadPool.scheduleAtFixedRate(new Runnable() {
+		this.maintenance = Executors.newScheduledThreadPool(1);
+		this.maintenance.scheduleAtFixedRate(new Runnable() {
 			@Override
 			public void run() {
 				try {
 					// The stabilize method is called periodically to update 
-					// the successor and predecessor links of the peer
+					// the successor and predecessor links of the peer. Dead 
+					// predecessors are detected first, so that a live peer 
+					// can replace them when it notifies this peer.
+					PeerImpl.this.checkPredecessor();
 					PeerImpl.this.stabilize();
+					// The routing table is then refreshed, along with the 
+					// round trip times to its peers
+					PeerImpl.this.fixFingers();
+					PeerImpl.this.measureLatencies();
 				} catch (RemoteException e) {
 					e.printStackTrace();
 				}
 			}
 		}, 0, 500, TimeUnit.MILLISECONDS);
+		this.maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				// Expired entries are removed a few at a time so that the 
+				// peer never stops serving requests for long
+				PeerImpl.this.sweep();
+			}
+		}, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+		this.maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				// The replicas of the entries managed by the peer are 
+				// repaired in the background
+				PeerImpl.this.synchronizeReplicas();
+			}
+		}, SYNC_PERIOD, SYNC_PERIOD, TimeUnit.MILLISECONDS);
+
+		this.notifier = Executors.newSingleThreadScheduledExecutor();
+		this.notifier.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				PeerImpl.this.notifyWatchers();
+			}
+		}, NOTIFICATION_PERIOD, NOTIFICATION_PERIOD, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -62,6 +264,7 @@ Peer {
 		this.predecessor = null;
 		// The bootstrap of the Chord network requires a self loop
 		this.successor = this;
+		this.successorList.clear();
 	}
 
 	/**
@@ -74,6 +277,8 @@ Peer {
 		// find which peer must be the successor of the joining peer, using 
 		// the identifier of the joining peer
 		this.successor = landmarkPeer.findSuccessor(this.id);
+		this.successorList.clear();
+		this.successorList.add(this.successor);
 		// The stabilize method will then update all the other links correctly
 	}
 
@@ -81,21 +286,263 @@ Peer {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public Peer findSuccessor(Identifier id) throws RemoteException {
-		// There is only one peer in the network
-		if (this.successor.equals(this)) {
-			return this;
+	public synchronized void bootstrap(Peer predecessor, 
+			List<Peer> successorList, List<Peer> fingers, 
+			List<Identifier> fingerIds) throws RemoteException {
+		this.predecessor = predecessor;
+		this.successorList.clear();
+		this.successorList.addAll(successorList);
+		this.successor = successorList.isEmpty() ? this 
+				: successorList.get(0);
+
+		// The fingers can be used as hops at once. Their round trip times are 
+		// measured at the next stabilization.
+		for (int i = 0 ; i < this.fingers.length ; i++) {
+			this.fingers[i] = i < fingers.size() ? fingers.get(i) : null;
+			if (this.fingers[i] != null) {
+				this.contacts.put(this.fingers[i], 
+						new Contact(fingerIds.get(i), 0));
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Peer findSuccessor(final Identifier id) throws RemoteException {
+		// Concurrent requests for the same identifier share a single walk 
+		// along the ring
+		return this.lookups.execute(id, new SingleFlight.Call<Peer>() {
+			@Override
+			public Peer call() throws RemoteException {
+				return PeerImpl.this.lookup(id);
+			}
+		});
+	}
+
+	/**
+	 * Finds the peer that manages the specified identifier by walking along 
+	 * the ring.
+	 * @param id The identifier for which the peer manager is searched
+	 * @return The peer that manages the specified identifier
+	 * @throws RemoteException
+	 */
+	private Peer lookup(Identifier id) throws RemoteException {
+		while (true) {
+			Peer successor = this.successor;
+			Peer nextHop = successor;
+
+			// There is only one peer in the network
+			if (successor.equals(this)) {
+				return this;
+			}
+
+			try {
+				// The specified identifier is in between the current peer 
+				// identifier and the successor identifier: the successor is 
+				// then the peer we are looking for
+				Identifier successorId = successor.getId();
+				if (id.isBetweenOpenClosed(this.id, successorId)) {
+					return successor;
+				}
+				// Nothing can be deduced from the specified identifier here: 
+				// propagate the request to a peer of the routing table that 
+				// is closer to it
+				else {
+					nextHop = this.nextHop(id, successor, successorId);
+					Contact contact = this.contacts.get(nextHop);
+					Identifier hopId = contact == null ? successorId 
+							: contact.id;
+					this.delay(hopId);
+					// The next hop answers once the whole lookup is done
+					Peer peer;
+					int timeout = TimeoutSocketFactory.setTimeout(
+							TimeoutSocketFactory.BULK_TIMEOUT);
+					try {
+						peer = nextHop.forward(id, hopId);
+					} finally {
+						TimeoutSocketFactory.setTimeout(timeout);
+					}
+					if (peer != null) {
+						return peer;
+					}
+					// The next hop has been relocated since it was measured: 
+					// routing through it could loop
+					this.forget(nextHop);
+				}
+			} catch (RemoteException e) {
+				// The failure may come from a peer further in the ring: the 
+				// request is only retried if the next hop itself is dead, 
+				// after removing it from the routing table
+				if (isAlive(nextHop)) {
+					throw e;
+				}
+				if (nextHop == successor) {
+					this.failOver(successor);
+				} else {
+					this.forget(nextHop);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Peer forward(Identifier id, Identifier hopId) 
+			throws RemoteException {
+		if (!this.id.equals(hopId)) {
+			return null;
+		}
+		return this.findSuccessor(id);
+	}
+
+	/**
+	 * Chooses the peer to which a lookup is forwarded, among the peers of the 
+	 * routing table that precede the identifier. The cost of a candidate is 
+	 * its round trip time, plus the average round trip time for each of the 
+	 * hops that are estimated to remain from it. The remaining hops are 
+	 * estimated from the remaining distance, as each hop halves it, down to 
+	 * the distance between two neighbors. This way, a faster peer is 
+	 * preferred unless it makes too little progress.
+	 * @param id The identifier for which the peer manager is searched
+	 * @param successor The successor of the peer, used when no other peer of 
+	 * the routing table precedes the identifier
+	 * @param successorId The identifier of the successor
+	 * @return The next hop of the lookup
+	 */
+	private Peer nextHop(Identifier id, Peer successor, 
+			Identifier successorId) {
+		Map<Peer, Contact> contacts = new HashMap<Peer, Contact>(this.contacts);
+		if (contacts.isEmpty()) {
+			return successor;
+		}
+
+		// The peers whose round trip time has not been measured yet are 
+		// assumed to be at the average round trip time
+		long totalRtt = 0;
+		int measured = 0;
+		for (Contact contact : contacts.values()) {
+			if (contact.rtt > 0) {
+				totalRtt += contact.rtt;
+				measured++;
+			}
+		}
+		double averageRtt = measured == 0 ? 1 : (double) totalRtt / measured;
+		double spacing = Math.max(1, successorId.distanceFrom(this.id));
+
+		Peer nextHop = successor;
+		double minCost = Double.MAX_VALUE;
+		for (Entry<Peer, Contact> candidate : contacts.entrySet()) {
+			Contact contact = candidate.getValue();
+			if (!contact.id.isBetweenOpenOpen(this.id, id)) {
+				continue;
+			}
+
+			double remainingHops = Math.log(1 
+					+ id.distanceFrom(contact.id) / spacing) / Math.log(2);
+			double cost = (contact.rtt > 0 ? contact.rtt : averageRtt) 
+					+ averageRtt * remainingHops;
+			if (cost < minCost) {
+				nextHop = candidate.getKey();
+				minCost = cost;
+			}
 		}
-		// The specified identifier is in between the current peer identifier 
-		// and the successor identifier: the successor is then the peer we are 
-		// looking for
-		if (id.isBetweenOpenClosed(this.id, this.successor.getId())) {
-			return this.successor;
+
+		return nextHop;
+	}
+
+	/**
+	 * Refreshes {@link #FINGERS_PER_ROUND} fingers of the routing table, in 
+	 * turn, by looking up the identifiers they are responsible for.
+	 */
+	private void fixFingers() {
+		for (int i = 0 ; i < FINGERS_PER_ROUND ; i++) {
+			int finger;
+			synchronized (this) {
+				finger = this.nextFinger;
+				this.nextFinger = (finger + 1) % this.fingers.length;
+			}
+
+			try {
+				Peer peer = this.findSuccessor(this.id.add(1L << finger));
+				synchronized (this) {
+					this.fingers[finger] = this.equals(peer) ? null : peer;
+				}
+			} catch (RemoteException e) {
+				// The finger is refreshed again at its next turn
+			}
+		}
+	}
+
+	/**
+	 * Measures the round trip time to each peer of the routing table, and 
+	 * updates the smoothed estimates used to choose the next hops. The peers 
+	 * that do not answer are removed from the routing table.
+	 */
+	private void measureLatencies() {
+		Set<Peer> peers = new HashSet<Peer>();
+
+		synchronized (this) {
+			peers.addAll(this.successorList);
+			for (Peer finger : this.fingers) {
+				if (finger != null) {
+					peers.add(finger);
+				}
+			}
+		}
+
+		// Remote calls are made without holding the lock of the peer
+		for (Peer peer : peers) {
+			long start = System.nanoTime();
+			try {
+				Identifier peerId = peer.getId();
+				this.delay(peerId);
+				long rtt = System.nanoTime() - start;
+
+				Contact previous = this.contacts.get(peer);
+				if (previous != null && previous.rtt > 0) {
+					rtt = previous.rtt + (rtt - previous.rtt) / RTT_SMOOTHING;
+				}
+				this.contacts.put(peer, new Contact(peerId, rtt));
+			} catch (RemoteException e) {
+				this.forget(peer);
+			}
+		}
+
+		// The peers that left the routing table are no longer used as hops
+		this.contacts.keySet().retainAll(peers);
+	}
+
+	/**
+	 * Removes a peer that did not answer from the fingers and the contacts. 
+	 * The successor list is repaired by the stabilization.
+	 * @param failedPeer The peer that did not answer
+	 */
+	private synchronized void forget(Peer failedPeer) {
+		this.contacts.remove(failedPeer);
+		for (int i = 0 ; i < this.fingers.length ; i++) {
+			if (failedPeer.equals(this.fingers[i])) {
+				this.fingers[i] = null;
+			}
 		}
-		// Nothing can be deduced from the specified identifier here: 
-		// propagate the request in case the successor knows more about it
-		else {
-			return this.successor.findSuccessor(id);
+	}
+
+	/**
+	 * Waits for the emulated round trip time of a link of the peer.
+	 * @param to The identifier of the peer at the other end of the link
+	 */
+	private void delay(Identifier to) {
+		long rtt = this.linkLatency.getRoundTripTime(this.id, to);
+
+		if (rtt > 0) {
+			try {
+				Thread.sleep(rtt);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
 	}
 
@@ -123,6 +570,32 @@ Peer {
 		return this.successor;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<Peer> getSuccessorList() throws RemoteException {
+		return new ArrayList<Peer>(this.successorList);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<Peer> getReplicas() {
+		List<Peer> replicas = new ArrayList<Peer>();
+		replicas.add(this);
+
+		for (Peer peer : this.successorList) {
+			if (replicas.size() == REPLICATION_FACTOR) {
+				break;
+			}
+			replicas.add(peer);
+		}
+
+		return replicas;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -178,74 +651,1310 @@ Peer {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void stabilize() throws RemoteException {
-		// x should be this itself, but it is not always the case, typically 
-		// if the successor has recently taken a new peer as predecessor
-		Peer x = this.successor.getPredecessor();
+	public void stabilize() throws RemoteException {
+		// Remote calls are made without holding the lock of the peer: a slow 
+		// or dead successor must not block the requests served by this peer. 
+		// Each failure removes a successor from the list, so the number of 
+		// attempts is bounded by the size of the list.
+		for (int i = 0 ; i <= SUCCESSOR_LIST_SIZE ; i++) {
+			Peer successor = this.successor;
 
-		// If x is this itself, then this condition is not valid. This 
-		// condition is valid if the successor has another peer as predecessor,
-		// then in this case we check if this other peer is indeed included in 
-		// the current identifier and the identifier of the successor. If it 
-		// is, then it mean that x must be the new successor.
-		if (x != null && 
-				x.getId().isBetweenOpenOpen(this.id, this.successor.getId())) {
-			this.successor = x;
-		}
+			try {
+				// x should be this itself, but it is not always the case, 
+				// typically if the successor has recently taken a new peer as 
+				// predecessor
+				Peer x = successor.getPredecessor();
+				Identifier xId = idOf(x);
+
+				// If x is this itself, then this condition is not valid. This 
+				// condition is valid if the successor has another live peer 
+				// as predecessor, then in this case we check if this other 
+				// peer is indeed included in the current identifier and the 
+				// identifier of the successor. If it is, then it mean that x 
+				// must be the new successor.
+				if (xId != null 
+						&& xId.isBetweenOpenOpen(this.id, successor.getId())) {
+					successor = x;
+				}
+
+				// The successor list is the successor followed by its own 
+				// successor list, up to this peer
+				List<Peer> successorList = new ArrayList<Peer>();
+				successorList.add(successor);
+				for (Peer peer : successor.getSuccessorList()) {
+					if (successorList.size() == SUCCESSOR_LIST_SIZE 
+							|| this.equals(peer)) {
+						break;
+					}
+					successorList.add(peer);
+				}
 
-		// The current peer needs to inform its successor that it is indeed its
-		// successor 
-		this.successor.notify(PeerImpl.this);
+				// The current peer needs to inform its successor that it is 
+				// indeed its successor. The successor may then hand it a 
+				// whole range of entries.
+				int timeout = TimeoutSocketFactory.setTimeout(
+						TimeoutSocketFactory.BULK_TIMEOUT);
+				try {
+					successor.notify(PeerImpl.this);
+				} finally {
+					TimeoutSocketFactory.setTimeout(timeout);
+				}
+
+				synchronized (this) {
+					this.successor = successor;
+					this.successorList.clear();
+					if (!successor.equals(this)) {
+						this.successorList.addAll(successorList);
+					}
+				}
+				return;
+			} catch (RemoteException e) {
+				// The failure may come from a call made by the successor: it 
+				// is only replaced if it is dead. The next live successor 
+				// then replaces it and the stabilization is done again at 
+				// once.
+				if (isAlive(successor)) {
+					throw e;
+				}
+				this.failOver(successor);
+			}
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void notify(Peer peer) throws RemoteException {
+	public void notify(Peer peer) throws RemoteException {
+		Peer predecessor = this.predecessor;
+		Identifier predecessorId = idOf(predecessor);
+
 		// If a new peer notify itself as a predecessor of the current peer, 
 		// check if it fits in the interval of the previous predecessor 
 		// identifier and it own identifier. If yes, take it as predecessor.
-		// Otherwise, nothing needs to be done.
-		if (this.predecessor == null
-				|| peer.getId().isBetweenOpenOpen(
-						this.predecessor.getId(), this.id)) {
+		// Otherwise, nothing needs to be done. A dead predecessor is replaced 
+		// by any peer.
+		Identifier peerId = peer.getId();
+		if (predecessorId != null
+				&& !peerId.isBetweenOpenOpen(predecessorId, this.id)) {
+			return;
+		}
+
+		synchronized (this) {
+			if (this.predecessor != predecessor) {
+				return;
+			}
 			this.predecessor = peer;
 		}
+
+		// The new predecessor now manages the identifiers up to its own one: 
+		// the entries of those identifiers are copied to it. This peer keeps 
+		// them, as it is now one of their replicas. If the previous 
+		// predecessor is unknown, every entry that is not managed by this 
+		// peer any more is copied: some of them are replicas of the entries 
+		// of other peers.
+		if (!this.equals(peer)) {
+			Partition partition = this.partition(
+					predecessorId == null ? this.id : predecessorId, peerId, 
+					false);
+			if (!partition.isEmpty()) {
+				int timeout = TimeoutSocketFactory.setTimeout(
+						TimeoutSocketFactory.BULK_TIMEOUT);
+				try {
+					peer.takeOver(partition);
+				} catch (RemoteException e) {
+					// Subscriptions are never lost: they are kept until the 
+					// new predecessor can take them
+					this.takeOver(partition);
+					throw e;
+				} finally {
+					TimeoutSocketFactory.setTimeout(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void checkPredecessor() throws RemoteException {
+		Peer predecessor = this.predecessor;
+
+		// A dead predecessor is forgotten, so that the next peer that 
+		// notifies this peer becomes its predecessor
+		if (predecessor != null && !isAlive(predecessor)) {
+			synchronized (this) {
+				if (this.predecessor == predecessor) {
+					this.predecessor = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces a successor that did not answer by the next peer of the 
+	 * successor list, or by this peer itself if the list is exhausted.
+	 * @param failedPeer The successor that did not answer
+	 */
+	private synchronized void failOver(Peer failedPeer) {
+		this.successorList.remove(failedPeer);
+		if (this.successor == failedPeer) {
+			this.successor = this.successorList.isEmpty() ? this 
+					: this.successorList.get(0);
+		}
+	}
+
+	/**
+	 * @param peer
+	 * @return The identifier of the specified peer, or null if the peer is 
+	 * null or does not answer
+	 */
+	private static Identifier idOf(Peer peer) {
+		if (peer == null) {
+			return null;
+		}
+		try {
+			return peer.getId();
+		} catch (RemoteException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param peer
+	 * @return true if the specified peer answers a remote call
+	 */
+	private static boolean isAlive(Peer peer) {
+		return idOf(peer) != null;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void put(String restaurant, String dailySpecial)
+	public void put(String restaurant, String dailySpecial)
 			throws RemoteException {
-		this.directory.put(restaurant, dailySpecial);
+		this.write(this.stamp(restaurant, dailySpecial, Listing.NEVER));
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public String get(String restaurant) throws RemoteException {
-		return this.directory.get(restaurant);
+	public void put(String restaurant, String dailySpecial, long ttl)
+			throws RemoteException {
+		this.write(this.stamp(restaurant, dailySpecial,
+				Listing.expiration(System.currentTimeMillis(), ttl)));
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public String describe() throws RemoteException {
-		StringBuilder s = new StringBuilder("Peer [id=" + this.id + 
-				", successor=" + this.successor.getId() + ", predecessor="
-				+ this.predecessor.getId() + ", values=[");
+	public Listing stamp(String restaurant, String dailySpecial, 
+			long expiration) {
+		// The version is greater than the one of the current listing of the 
+		// restaurant, even if it was given by the clock of a previous 
+		// responsible peer that is ahead of the one of this peer
+		Listing previous;
+		synchronized (this) {
+			previous = this.directory.get(restaurant);
+		}
+
+		long version = previous == null ? this.clock.next() 
+				: this.clock.next(previous.getVersion());
+		return new Listing(restaurant, dailySpecial, expiration, version);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean write(Listing listing) throws RemoteException {
+		this.requests.incrementAndGet();
+		String restaurant = listing.getRestaurant();
+		Map<String, Set<String>> replaced = new HashMap<String, Set<String>>();
+		boolean stored;
+
+		synchronized (this) {
+			Listing previous = this.directory.get(restaurant);
+			if (this.merge(listing)) {
+				stored = true;
+				if (previous != null) {
+					add(replaced, restaurant, previous.getDailySpecial());
+				}
+			} else {
+				// The same listing may be sent again after a failure
+				stored = previous.getVersion() == listing.getVersion()
+						&& previous.digest() == listing.digest();
+			}
+		}
+
+		// Only the peer that manages an entry maintains its reverse index: 
+		// the replicas receive the same writes
+		Identifier predecessorId = idOf(this.predecessor);
+		if (predecessorId != null && !new Key(restaurant).isBetweenOpenClosed(
+				predecessorId, this.id)) {
+			return stored;
+		}
+
+		// The current listing is always indexed, even if the write is 
+		// outdated: indexing is idempotent, and a write sent again after a 
+		// failure of the index must create the missing link
+		this.reindexAll(replaced, Collections.singleton(restaurant));
+		return stored;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Listing> writeAll(List<Listing> listings) 
+			throws RemoteException {
+		List<Listing> rejected = new ArrayList<Listing>();
+		Map<String, Set<String>> replaced = new HashMap<String, Set<String>>();
+		Set<String> written = new HashSet<String>();
+		Identifier predecessorId = idOf(this.predecessor);
+
+		// The listings are versioned and stored as by put, in the order of 
+		// the group, but the reverse index is updated once for the whole 
+		// group
+		synchronized (this) {
+			for (Listing listing : listings) {
+				String restaurant = listing.getRestaurant();
+				if (predecessorId != null && !new Key(restaurant)
+						.isBetweenOpenClosed(predecessorId, this.id)) {
+					rejected.add(listing);
+					continue;
+				}
+
+				this.requests.incrementAndGet();
+				Listing previous = this.directory.get(restaurant);
+				if (this.merge(this.stamp(restaurant, 
+						listing.getDailySpecial(), listing.getExpiration()))
+						&& previous != null) {
+					add(replaced, restaurant, previous.getDailySpecial());
+				}
+				written.add(restaurant);
+			}
+		}
+
+		this.reindexAll(replaced, written);
+		return rejected;
+	}
+
+	/**
+	 * Stores a listing unless a newer listing of the same restaurant is 
+	 * already stored, and schedules the notification of the listeners if the 
+	 * daily special changes. The lock of the peer must be held by the caller.
+	 * @param listing The listing to store
+	 * @return true if the listing has been stored
+	 */
+	private boolean merge(Listing listing) {
+		Listing previous = this.directory.get(listing.getRestaurant());
+		if (previous != null && !listing.isNewerThan(previous)) {
+			return false;
+		}
+
+		this.store(listing);
+		// Only the peer that manages the restaurant key has listeners. They 
+		// are scheduled under the lock so that concurrent writes are notified 
+		// in the order they are stored.
+		if (previous == null || !listing.getDailySpecial().equals(
+				previous.getDailySpecial())) {
+			this.schedule(listing.getRestaurant(), listing.getDailySpecial());
+		}
+		return true;
+	}
+
+	/**
+	 * Updates the reverse index after listings of restaurants managed by the 
+	 * peer have been stored or removed. The reverse index entries are stored 
+	 * by the peers that manage the daily special keys: the links are grouped 
+	 * by peer, so that each of these peers is sent a single request to 
+	 * remove links and a single request to add links, whatever the number of 
+	 * listings. A failure does not prevent the other peers from being 
+	 * updated, and the links that could not be removed are removed again at 
+	 * the next sweep. The lock of the peer must not be held by the caller.
+	 * <p>
+	 * The updates of the same restaurant are serialized, and each of them 
+	 * links the listing that is stored once it holds the lock of the 
+	 * restaurant, rather than the one it has stored itself. A write that 
+	 * replaces that listing concurrently updates the index after it, and 
+	 * removes its link: concurrent writes thus never leave a link to a 
+	 * replaced daily special.
+	 * @param replaced The daily specials of the listings that have been 
+	 * replaced or removed, by restaurant
+	 * @param restaurants The restaurants whose current listing is linked
+	 * @throws RemoteException If a peer could not be updated
+	 */
+	private void reindexAll(Map<String, Set<String>> replaced, 
+			Set<String> restaurants) throws RemoteException {
+		Set<String> updated = new HashSet<String>(restaurants);
+		updated.addAll(replaced.keySet());
+		List<ReentrantLock> locks = this.lockIndex(updated);
+
+		try {
+			Map<String, Set<String>> unlinks = 
+					new HashMap<String, Set<String>>();
+			Map<String, Set<String>> links = 
+					new HashMap<String, Set<String>>();
+
+			// An expired listing that has not been swept yet is still linked
+			synchronized (this) {
+				for (String restaurant : updated) {
+					Listing current = this.directory.get(restaurant);
+					String dailySpecial = 
+							current == null ? null : current.getDailySpecial();
+					if (dailySpecial != null 
+							&& restaurants.contains(restaurant)) {
+						add(links, dailySpecial, restaurant);
+					}
+					if (replaced.containsKey(restaurant)) {
+						for (String previous : replaced.get(restaurant)) {
+							if (!previous.equals(dailySpecial)) {
+								add(unlinks, previous, restaurant);
+							}
+						}
+					}
+				}
+			}
+
+			// Daily specials have few distinct keys: each of them is looked 
+			// up only once
+			Map<Identifier, Peer> owners = new HashMap<Identifier, Peer>();
+			Map<Peer, Map<String, Set<String>>> unlinksByOwner;
+			Map<Peer, Map<String, Set<String>>> linksByOwner;
+			try {
+				unlinksByOwner = this.groupByOwner(unlinks, owners);
+				linksByOwner = this.groupByOwner(links, owners);
+			} catch (RemoteException e) {
+				this.retryUnindex(unlinks);
+				throw e;
+			}
+
+			RemoteException failure = null;
+			for (Peer owner : new HashSet<Peer>(owners.values())) {
+				if (unlinksByOwner.containsKey(owner)) {
+					try {
+						owner.unindexAll(unlinksByOwner.get(owner));
+					} catch (RemoteException e) {
+						this.retryUnindex(unlinksByOwner.get(owner));
+						failure = e;
+					}
+				}
+				if (linksByOwner.containsKey(owner)) {
+					try {
+						owner.indexAll(linksByOwner.get(owner));
+					} catch (RemoteException e) {
+						failure = e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			for (ReentrantLock lock : locks) {
+				lock.unlock();
+			}
+		}
+	}
 
-		int cpt = 0;
-		int size = this.directory.size();
-		for (Entry<String,String> entry : this.directory.entrySet()) {
-			s.append("(" + entry.getKey() + ";" + entry.getValue() + ")");
-			if (++cpt != size) {
-				s.append(", ");
+	/**
+	 * Takes the locks that serialize the updates of the reverse index of some 
+	 * restaurants. The locks are always taken in the same order, so that 
+	 * concurrent updates of several restaurants cannot deadlock.
+	 * @param restaurants The names of the restaurants
+	 * @return The locks that have been taken
+	 */
+	private List<ReentrantLock> lockIndex(Set<String> restaurants) {
+		SortedMap<Integer, ReentrantLock> locks = 
+				new TreeMap<Integer, ReentrantLock>();
+		for (String restaurant : restaurants) {
+			int i = (restaurant.hashCode() & Integer.MAX_VALUE) 
+					% NB_INDEX_LOCKS;
+			locks.put(i, this.indexLocks[i]);
+		}
+
+		for (ReentrantLock lock : locks.values()) {
+			lock.lock();
+		}
+		return new ArrayList<ReentrantLock>(locks.values());
+	}
+
+	/**
+	 * Records links of the reverse index that could not be removed, so that 
+	 * they are removed at the next sweep.
+	 * @param unlinks Restaurants by daily special
+	 */
+	private void retryUnindex(Map<String, Set<String>> unlinks) {
+		synchronized (this.unindexRetries) {
+			for (Entry<String, Set<String>> unlink : unlinks.entrySet()) {
+				for (String restaurant : unlink.getValue()) {
+					add(this.unindexRetries, restaurant, unlink.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Groups links of the reverse index by the peer that manages their daily 
+	 * special.
+	 * @param links Restaurants by daily special
+	 * @param owners The peers already looked up, by key. The peers looked up 
+	 * by this method are added.
+	 * @return The links managed by each peer
+	 * @throws RemoteException If a lookup failed
+	 */
+	private Map<Peer, Map<String, Set<String>>> groupByOwner(
+			Map<String, Set<String>> links, Map<Identifier, Peer> owners) 
+					throws RemoteException {
+		Map<Peer, Map<String, Set<String>>> groups = 
+				new HashMap<Peer, Map<String, Set<String>>>();
+
+		for (Entry<String, Set<String>> link : links.entrySet()) {
+			Key key = new Key(link.getKey());
+			Peer owner = owners.get(key);
+			if (owner == null) {
+				owner = this.findSuccessor(key);
+				owners.put(key, owner);
+			}
+
+			Map<String, Set<String>> group = groups.get(owner);
+			if (group == null) {
+				group = new HashMap<String, Set<String>>();
+				groups.put(owner, group);
+			}
+			group.put(link.getKey(), link.getValue());
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Adds a value to a map of sets.
+	 * @param map
+	 * @param key
+	 * @param value
+	 */
+	private static void add(Map<String, Set<String>> map, String key, 
+			String value) {
+		Set<String> values = map.get(key);
+		if (values == null) {
+			values = new HashSet<String>();
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * Stores a listing in the directory, and keeps the other local structures 
+	 * up to date. The lock of the peer must be held by the caller.
+	 * @param listing The listing to store
+	 * @return The listing that has been replaced, or null
+	 */
+	private Listing store(Listing listing) {
+		Listing previous = this.directory.put(listing.getRestaurant(), listing);
+
+		if (previous != null) {
+			this.merkleTree.remove(previous);
+			this.expirations.remove(previous);
+		}
+		this.merkleTree.add(listing);
+		if (listing.getExpiration() != Listing.NEVER) {
+			this.expirations.add(listing);
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes a listing from the directory, and keeps the other local 
+	 * structures up to date. The lock of the peer must be held by the caller.
+	 * @param restaurant The restaurant whose listing is removed
+	 * @return The listing that has been removed, or null
+	 */
+	private Listing evict(String restaurant) {
+		Listing listing = this.directory.remove(restaurant);
+
+		if (listing != null) {
+			this.merkleTree.remove(listing);
+			this.expirations.remove(listing);
+		}
+
+		return listing;
+	}
+
+	/**
+	 * Removes from the directory at most {@link #SWEEP_BATCH_SIZE} entries 
+	 * whose time to live has elapsed, and unindexes their daily specials. 
+	 * Bounding the work done by each call avoids holding the lock of the peer 
+	 * for long when many entries expire at the same time. The daily specials 
+	 * that cannot be unindexed are unindexed again at the next sweep.
+	 */
+	private void sweep() {
+		Map<String, Set<String>> removed = new HashMap<String, Set<String>>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this.unindexRetries) {
+			removed.putAll(this.unindexRetries);
+			this.unindexRetries.clear();
+		}
+
+		synchronized (this) {
+			for (int i = 0 ; i < SWEEP_BATCH_SIZE 
+					&& !this.expirations.isEmpty()
+					&& this.expirations.first().isExpired(now) ; i++) {
+				Listing listing = this.expirations.first();
+				this.evict(listing.getRestaurant());
+				this.schedule(listing.getRestaurant(), null);
+				add(removed, listing.getRestaurant(), 
+						listing.getDailySpecial());
+			}
+		}
+
+		// Only the peer that manages an entry maintains its reverse index: 
+		// the replicas may hold outdated listings
+		Identifier predecessorId = idOf(this.predecessor);
+		Iterator<String> restaurants = removed.keySet().iterator();
+		while (restaurants.hasNext()) {
+			if (predecessorId != null && !new Key(restaurants.next())
+					.isBetweenOpenClosed(predecessorId, this.id)) {
+				restaurants.remove();
+			}
+		}
+
+		// The restaurants that have been listed again since they expired keep 
+		// the link to their current daily special
+		try {
+			this.reindexAll(removed, Collections.<String>emptySet());
+		} catch (RemoteException e) {
+			// The links that could not be removed are removed at the next 
+			// sweep
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void watch(String restaurant, DailySpecialListener listener) {
+		synchronized (this.watchers) {
+			Set<DailySpecialListener> listeners =
+					this.watchers.get(restaurant);
+			if (listeners == null) {
+				listeners = new HashSet<DailySpecialListener>();
+				this.watchers.put(restaurant, listeners);
+			}
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void unwatch(String restaurant, DailySpecialListener listener) {
+		synchronized (this.watchers) {
+			Set<DailySpecialListener> listeners =
+					this.watchers.get(restaurant);
+			if (listeners != null && listeners.remove(listener)
+					&& listeners.isEmpty()) {
+				this.watchers.remove(restaurant);
+			}
+		}
+	}
+
+	/**
+	 * Records that the daily special of a restaurant has changed, so that its 
+	 * listeners are notified at the next notification period. A previous 
+	 * change that has not been notified yet is replaced.
+	 * @param restaurant Name of the restaurant
+	 * @param dailySpecial Name of the new daily special, or null if it expired
+	 */
+	private void schedule(String restaurant, String dailySpecial) {
+		synchronized (this.watchers) {
+			if (this.watchers.containsKey(restaurant)) {
+				this.notifications.put(restaurant, dailySpecial);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the changes recorded since the last call to the listeners of the 
+	 * restaurants. The listeners that cannot be reached are unsubscribed, as 
+	 * their client is considered dead.
+	 */
+	private void notifyWatchers() {
+		Map<String, String> notifications;
+		Map<String, Set<DailySpecialListener>> listeners =
+				new HashMap<String, Set<DailySpecialListener>>();
+
+		// The listeners are called without holding the lock, so that writes 
+		// are never delayed by slow clients
+		synchronized (this.watchers) {
+			notifications = new HashMap<String, String>(this.notifications);
+			this.notifications.clear();
+			for (String restaurant : notifications.keySet()) {
+				Set<DailySpecialListener> watchers =
+						this.watchers.get(restaurant);
+				if (watchers != null) {
+					listeners.put(restaurant,
+							new HashSet<DailySpecialListener>(watchers));
+				}
+			}
+		}
+
+		for (Entry<String, Set<DailySpecialListener>> watched :
+				listeners.entrySet()) {
+			String restaurant = watched.getKey();
+			for (DailySpecialListener listener : watched.getValue()) {
+				try {
+					listener.dailySpecialChanged(restaurant,
+							notifications.get(restaurant));
+				} catch (RemoteException e) {
+					this.unwatch(restaurant, listener);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String get(String restaurant) throws RemoteException {
+		Listing listing = this.read(restaurant);
+		return listing == null ? null : listing.getDailySpecial();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Listing read(String restaurant) 
+			throws RemoteException {
+		this.requests.incrementAndGet();
+		Listing listing = this.directory.get(restaurant);
+
+		// Expired entries are never returned, even if they have not been 
+		// swept yet
+		if (listing == null || listing.isExpired(System.currentTimeMillis())) {
+			return null;
+		}
+		return listing;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SortedMap<String, Listing> scan(String from, int limit)
+			throws RemoteException {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Invalid page size: " + limit);
+		}
+		this.requests.incrementAndGet();
+		SortedMap<String, Listing> page = new TreeMap<String, Listing>();
+		Identifier predecessorId = idOf(this.predecessor);
+		long now = System.currentTimeMillis();
+
+		// The directory is sorted: the entries to return are the first ones 
+		// of its tail starting at the specified restaurant. The replicas may 
+		// hold outdated listings, so they are left to the peers that manage 
+		// them.
+		synchronized (this) {
+			for (Listing listing : this.directory.tailMap(from).values()) {
+				if (page.size() == limit) {
+					break;
+				}
+				if (!listing.isExpired(now) && (predecessorId == null 
+						|| new Key(listing.getRestaurant())
+								.isBetweenOpenClosed(predecessorId, this.id))) {
+					page.put(listing.getRestaurant(), listing);
+				}
+			}
+		}
+
+		return page;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void index(String dailySpecial, String restaurant)
+			throws RemoteException {
+		synchronized (this.specials) {
+			Set<String> restaurants = this.specials.get(dailySpecial);
+			if (restaurants == null) {
+				restaurants = new HashSet<String>();
+				this.specials.put(dailySpecial, restaurants);
+			}
+			restaurants.add(restaurant);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void unindex(String dailySpecial, String restaurant)
+			throws RemoteException {
+		synchronized (this.specials) {
+			Set<String> restaurants = this.specials.get(dailySpecial);
+			if (restaurants != null) {
+				restaurants.remove(restaurant);
+				if (restaurants.isEmpty()) {
+					this.specials.remove(dailySpecial);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void indexAll(Map<String, Set<String>> links) 
+			throws RemoteException {
+		synchronized (this.specials) {
+			for (Entry<String, Set<String>> link : links.entrySet()) {
+				for (String restaurant : link.getValue()) {
+					add(this.specials, link.getKey(), restaurant);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void unindexAll(Map<String, Set<String>> links) 
+			throws RemoteException {
+		synchronized (this.specials) {
+			for (Entry<String, Set<String>> link : links.entrySet()) {
+				for (String restaurant : link.getValue()) {
+					this.unindex(link.getKey(), restaurant);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> getRestaurants(String dailySpecial)
+			throws RemoteException {
+		this.requests.incrementAndGet();
+		synchronized (this.specials) {
+			Set<String> restaurants = this.specials.get(dailySpecial);
+			// A copy is returned so that the caller never sees the index 
+			// being modified
+			return restaurants == null ? new HashSet<String>()
+					: new HashSet<String>(restaurants);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Partition handOff(Identifier from, Identifier to)
+			throws RemoteException {
+		return this.partition(from, to, true);
+	}
+
+	/**
+	 * Gathers the content whose key belongs to a range of identifiers. The 
+	 * subscriptions are always removed from the peer, as only the peer that 
+	 * manages a restaurant notifies its listeners.
+	 * @param from The identifier that starts the range (excluded)
+	 * @param to The identifier that ends the range (included). If it is equal 
+	 * to from, the range is the whole ring.
+	 * @param evict true if the listings and the reverse index entries are 
+	 * removed from the peer, false if the peer keeps a copy of them
+	 * @return The content of the range
+	 */
+	private Partition partition(Identifier from, Identifier to, 
+			boolean evict) {
+		Partition partition = new Partition();
+
+		synchronized (this) {
+			for (Listing listing : this.directory.values()) {
+				if (new Key(listing.getRestaurant()).isBetweenOpenClosed(
+						from, to)) {
+					partition.getListings().put(listing.getRestaurant(),
+							listing);
+				}
+			}
+			if (evict) {
+				for (String restaurant : partition.getListings().keySet()) {
+					this.evict(restaurant);
+				}
+			}
+		}
+
+		synchronized (this.specials) {
+			Iterator<Entry<String, Set<String>>> specials =
+					this.specials.entrySet().iterator();
+			while (specials.hasNext()) {
+				Entry<String, Set<String>> special = specials.next();
+				if (new Key(special.getKey()).isBetweenOpenClosed(from, to)) {
+					partition.getSpecials().put(special.getKey(),
+							new HashSet<String>(special.getValue()));
+					if (evict) {
+						specials.remove();
+					}
+				}
+			}
+		}
+
+		// The subscriptions move along with the restaurant keys. The pending 
+		// notifications are sent by this peer, the next ones by the new one.
+		synchronized (this.watchers) {
+			Iterator<Entry<String, Set<DailySpecialListener>>> watchers =
+					this.watchers.entrySet().iterator();
+			while (watchers.hasNext()) {
+				Entry<String, Set<DailySpecialListener>> watched =
+						watchers.next();
+				if (new Key(watched.getKey()).isBetweenOpenClosed(from, to)) {
+					partition.getWatchers().put(watched.getKey(),
+							watched.getValue());
+					watchers.remove();
+				}
+			}
+		}
+
+		return partition;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void takeOver(Partition partition) throws RemoteException {
+		// The handed listings are already indexed by the peers that manage 
+		// their daily specials, as the previous responsible peer indexed them 
+		// when they were written
+		this.mergeAll(new ArrayList<Listing>(partition.getListings().values()), 
+				false);
+
+		for (Entry<String, Set<String>> special :
+				partition.getSpecials().entrySet()) {
+			for (String restaurant : special.getValue()) {
+				this.index(special.getKey(), restaurant);
+			}
+		}
+
+		for (Entry<String, Set<DailySpecialListener>> watched :
+				partition.getWatchers().entrySet()) {
+			for (DailySpecialListener listener : watched.getValue()) {
+				this.watch(watched.getKey(), listener);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PeerLoad getLoad() throws RemoteException {
+		Identifier predecessorId = idOf(this.predecessor);
+		int entries = 0;
+
+		// Only the entries managed by the peer are counted, not the ones it 
+		// stores as a replica
+		synchronized (this) {
+			for (String restaurant : this.directory.keySet()) {
+				if (predecessorId == null || new Key(restaurant)
+						.isBetweenOpenClosed(predecessorId, this.id)) {
+					entries++;
+				}
+			}
+		}
+
+		return new PeerLoad(this.requests.getAndSet(0), entries);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Identifier getSplitPoint() throws RemoteException {
+		final Identifier predecessorId = idOf(this.predecessor);
+		if (predecessorId == null) {
+			return null;
+		}
+
+		// Only the keys managed by the peer are considered, not the ones it 
+		// stores as a replica
+		List<Identifier> keys = new ArrayList<Identifier>();
+		synchronized (this) {
+			for (String restaurant : this.directory.keySet()) {
+				Identifier key = new Key(restaurant);
+				if (key.isBetweenOpenClosed(predecessorId, this.id)) {
+					keys.add(key);
+				}
+			}
+		}
+		if (keys.isEmpty()) {
+			return null;
+		}
+
+		// The keys are sorted in the order of the ring, starting from the 
+		// predecessor: the median key splits the entries in two halves
+		Collections.sort(keys, new Comparator<Identifier>() {
+			@Override
+			public int compare(Identifier id1, Identifier id2) {
+				return Long.compare(id1.distanceFrom(predecessorId),
+						id2.distanceFrom(predecessorId));
+			}
+		});
+		Identifier median = keys.get((keys.size() - 1) / 2);
+
+		// The split point must be a free identifier of the range, otherwise 
+		// the range cannot be split
+		if (!median.isBetweenOpenOpen(predecessorId, this.id)) {
+			return null;
+		}
+		return median;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void relocate(Identifier newId) throws RemoteException {
+		// The neighbors are read and the identifier is changed under the 
+		// lock, but the remote calls are made outside of it, so that this 
+		// peer keeps answering the other peers while it moves
+		Peer predecessor;
+		Peer successor;
+		synchronized (this) {
+			predecessor = this.predecessor;
+			successor = this.successor;
+			if (predecessor == null || successor.equals(this)) {
+				return;
+			}
+
+			// The routing table was built for the previous identifier
+			this.id = newId;
+			Arrays.fill(this.fingers, null);
+			this.contacts.clear();
+		}
+
+		int timeout = TimeoutSocketFactory.setTimeout(
+				TimeoutSocketFactory.BULK_TIMEOUT);
+		try {
+			// The peer leaves the ring: its entries are handed to its 
+			// successor, which now manages its whole range, and its 
+			// neighbors are linked together
+			successor.takeOver(this.handOff(newId, newId));
+			predecessor.setSuccessor(successor);
+			successor.setPredecessor(predecessor);
+
+			// The peer joins the ring again with its new identifier. 
+			// Notifying its new successor makes it copy the entries this 
+			// peer is now responsible for, as when a peer joins: the new 
+			// successor keeps them, as it is now one of their replicas.
+			Peer newSuccessor = successor.findSuccessor(newId);
+			Peer newPredecessor = newSuccessor.getPredecessor();
+			Identifier newPredecessorId = idOf(newPredecessor);
+			synchronized (this) {
+				this.predecessor = newPredecessorId == null ? null 
+						: newPredecessor;
+				this.successor = newSuccessor;
+				this.successorList.clear();
+				this.successorList.add(newSuccessor);
+			}
+			newSuccessor.notify(this);
+			if (newPredecessorId != null) {
+				newPredecessor.setSuccessor(this);
+			}
+		} finally {
+			TimeoutSocketFactory.setTimeout(timeout);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long[] getDigests(long[] nodes)
+			throws RemoteException {
+		return this.merkleTree.getDigests(nodes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<Listing> getListings(long[] leaves)
+			throws RemoteException {
+		List<Listing> listings = new ArrayList<Listing>();
+		long now = System.currentTimeMillis();
+
+		for (long leaf : leaves) {
+			for (String restaurant : this.merkleTree.getRestaurants(leaf)) {
+				Listing listing = this.directory.get(restaurant);
+				if (!listing.isExpired(now)) {
+					listings.add(listing);
+				}
+			}
+		}
+
+		return listings;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void repair(List<Listing> listings) throws RemoteException {
+		this.mergeAll(listings, true);
+	}
+
+	/**
+	 * Stores the listings that are newer than the local ones, as if they were 
+	 * written.
+	 * @param listings The listings sent by another peer
+	 * @param reindex true if the reverse index of the entries managed by the 
+	 * peer must be updated
+	 * @throws RemoteException If the reverse index could not be updated
+	 */
+	private void mergeAll(List<Listing> listings, boolean reindex) 
+			throws RemoteException {
+		Map<String, Set<String>> replaced = new HashMap<String, Set<String>>();
+		Set<String> stored = new HashSet<String>();
+		Identifier predecessorId = idOf(this.predecessor);
+		long now = System.currentTimeMillis();
+
+		// The listings are stored as if they were written, so that the 
+		// listeners are notified of the daily specials that change. The peer 
+		// that manages a repaired entry also repairs its reverse index.
+		synchronized (this) {
+			for (Listing listing : listings) {
+				String restaurant = listing.getRestaurant();
+				Listing previous = this.directory.get(restaurant);
+				if (listing.isExpired(now) || !this.merge(listing)
+						|| (predecessorId != null && !new Key(restaurant)
+								.isBetweenOpenClosed(predecessorId, this.id))) {
+					continue;
+				}
+				if (previous != null) {
+					add(replaced, restaurant, previous.getDailySpecial());
+				}
+				stored.add(restaurant);
+			}
+		}
+
+		if (reindex) {
+			this.reindexAll(replaced, stored);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void replicateSpecials(Identifier from, Identifier to,
+			Map<String, Set<String>> specials) throws RemoteException {
+		synchronized (this.specials) {
+			Iterator<String> dailySpecials = this.specials.keySet().iterator();
+			while (dailySpecials.hasNext()) {
+				if (new Key(dailySpecials.next()).isBetweenOpenClosed(from, 
+						to)) {
+					dailySpecials.remove();
+				}
+			}
+			this.specials.putAll(specials);
+		}
+	}
+
+	/**
+	 * Synchronizes the entries managed by the peer and their reverse index 
+	 * with the replicas that follow it in the ring, and removes the entries 
+	 * that the peer no longer replicates. Failures are ignored: the replicas 
+	 * are synchronized again at the next period.
+	 */
+	private void synchronizeReplicas() {
+		Peer predecessor = this.predecessor;
+		Identifier predecessorId = idOf(predecessor);
+		if (predecessorId == null) {
+			return;
+		}
+		this.dropStrays(predecessor, predecessorId);
+
+		// The reverse index has no version to compare, and is much smaller 
+		// than the directory: the replicas are sent a copy of it
+		Map<String, Set<String>> specials = 
+				new HashMap<String, Set<String>>();
+		synchronized (this.specials) {
+			for (Entry<String, Set<String>> special : 
+					this.specials.entrySet()) {
+				if (new Key(special.getKey()).isBetweenOpenClosed(
+						predecessorId, this.id)) {
+					specials.put(special.getKey(), 
+							new HashSet<String>(special.getValue()));
+				}
+			}
+		}
+
+		// The first replica is the peer itself. A repair may send many 
+		// listings, and reindex them.
+		List<Peer> replicas = this.getReplicas();
+		int timeout = TimeoutSocketFactory.setTimeout(
+				TimeoutSocketFactory.BULK_TIMEOUT);
+		try {
+			for (Peer replica : replicas.subList(1, replicas.size())) {
+				try {
+					this.synchronize(replica, predecessorId, this.id);
+					replica.replicateSpecials(predecessorId, this.id, 
+							specials);
+				} catch (RemoteException e) {
+					// The replica is unreachable: the successor list will be 
+					// updated by the next stabilization
+				}
+			}
+		} finally {
+			TimeoutSocketFactory.setTimeout(timeout);
+		}
+	}
+
+	/**
+	 * Removes the entries that the peer neither manages nor replicates. A 
+	 * peer keeps a copy of the entries it hands to a new predecessor, and 
+	 * receives the entries of its predecessors: once the ring has changed, 
+	 * some of them belong to peers that are more than 
+	 * {@link #REPLICATION_FACTOR} peers away, and are never updated again. 
+	 * The range that is kept is found by walking back along the 
+	 * predecessors, and nothing is removed if one of them does not answer.
+	 * @param predecessor The predecessor of the peer
+	 * @param predecessorId The identifier of the predecessor
+	 */
+	private void dropStrays(Peer predecessor, Identifier predecessorId) {
+		// The peer replicates the entries managed by its 
+		// REPLICATION_FACTOR - 1 predecessors: the range that is kept starts 
+		// at the predecessor of the farthest one
+		Identifier from;
+		try {
+			Peer peer = predecessor;
+			for (int i = 1 ; i < REPLICATION_FACTOR ; i++) {
+				peer = peer.getPredecessor();
+				if (peer == null) {
+					return;
+				}
+			}
+			from = peer.getId();
+		} catch (RemoteException e) {
+			return;
+		}
+		// The ring is too small, or is being changed, for the range to be 
+		// known
+		if (!predecessorId.isBetweenOpenOpen(from, this.id)) {
+			return;
+		}
+
+		synchronized (this) {
+			List<String> strays = new ArrayList<String>();
+			for (String restaurant : this.directory.keySet()) {
+				if (!new Key(restaurant).isBetweenOpenClosed(from, this.id)) {
+					strays.add(restaurant);
+				}
+			}
+			for (String restaurant : strays) {
+				this.evict(restaurant);
+			}
+		}
+
+		synchronized (this.specials) {
+			Iterator<String> dailySpecials = this.specials.keySet().iterator();
+			while (dailySpecials.hasNext()) {
+				if (!new Key(dailySpecials.next()).isBetweenOpenClosed(from, 
+						this.id)) {
+					dailySpecials.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes the peer and a replica agree on the entries whose key belongs to 
+	 * a range of identifiers. Both Merkle trees are compared from the nodes 
+	 * that cover the range down to the leaves, following only the nodes whose 
+	 * digests differ. Only the listings of the differing leaves are then 
+	 * exchanged, and each side keeps the newest listing of each restaurant. 
+	 * The cost of a synchronization thus depends on the number of entries 
+	 * that differ, not on the number of entries in the range.
+	 * @param replica The peer to synchronize with
+	 * @param from The identifier that starts the range (excluded)
+	 * @param to The identifier that ends the range (included)
+	 * @throws RemoteException
+	 */
+	private void synchronize(Peer replica, Identifier from, Identifier to)
+			throws RemoteException {
+		List<Long> nodes = MerkleTree.cover(from, to);
+		List<Long> differingLeaves = new ArrayList<Long>();
+
+		while (!nodes.isEmpty()) {
+			long[] addresses = new long[nodes.size()];
+			for (int i = 0 ; i < addresses.length ; i++) {
+				addresses[i] = nodes.get(i);
+			}
+
+			long[] localDigests = this.getDigests(addresses);
+			long[] remoteDigests = replica.getDigests(addresses);
+
+			nodes = new ArrayList<Long>();
+			for (int i = 0 ; i < addresses.length ; i++) {
+				if (localDigests[i] == remoteDigests[i]) {
+					continue;
+				}
+				if (MerkleTree.isLeaf(addresses[i])) {
+					differingLeaves.add(addresses[i]);
+				} else {
+					for (long child : MerkleTree.children(addresses[i])) {
+						nodes.add(child);
+					}
+				}
+			}
+		}
+
+		if (differingLeaves.isEmpty()) {
+			return;
+		}
+
+		long[] leaves = new long[differingLeaves.size()];
+		for (int i = 0 ; i < leaves.length ; i++) {
+			leaves[i] = differingLeaves.get(i);
+		}
+		List<Listing> remoteListings = replica.getListings(leaves);
+		replica.repair(this.getListings(leaves));
+		this.repair(remoteListings);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String describe() throws RemoteException {
+		StringBuilder s = new StringBuilder("Peer [id=" + this.id + 
+				", successor=" + idOf(this.successor) + ", predecessor="
+				+ idOf(this.predecessor) + ", values=[");
+
+		synchronized (this) {
+			int cpt = 0;
+			int size = this.directory.size();
+			for (Listing listing : this.directory.values()) {
+				s.append(listing);
+				if (++cpt != size) {
+					s.append(", ");
+				}
 			}
 		}
 
@@ -261,6 +1970,9 @@ Peer {
 		// from executing on this object. A further RMI call on this will 
 		// cause a java.rmi.NoSuchObjectException.
 		UnicastRemoteObject.unexportObject(this, true);
+		// A dead peer no longer takes part in the maintenance of the ring
+		this.maintenance.shutdownNow();
+		this.notifier.shutdownNow();
 
 		System.out.println("Peer with id " + this.id + " has died.");
 	}
@@ -0,0 +1,49 @@
+package fr.unice.platdujour.chord;
+
+import java.io.Serializable;
+
+/**
+ * Class that represents the load of a peer: the number of requests it served
+ * recently and the number of entries it manages.
+ */
+public class PeerLoad implements Serializable {
+
+	/** Default serialization ID */
+	private static final long serialVersionUID = 1L;
+
+	/** Number of requests served by the peer since its load was last read */
+	private final long requests;
+
+	/** Number of entries managed by the peer, replicas excluded */
+	private final int entries;
+
+
+	public PeerLoad(long requests, int entries) {
+		this.requests = requests;
+		this.entries = entries;
+	}
+
+	/**
+	 * @return The number of requests served by the peer since its load was
+	 * last read
+	 */
+	public long getRequests() {
+		return this.requests;
+	}
+
+	/**
+	 * @return The number of entries managed by the peer, replicas excluded
+	 */
+	public int getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "[requests=" + this.requests + ", entries=" + this.entries + "]";
+	}
+
+}
@@ -0,0 +1,116 @@
+package fr.unice.platdujour.chord;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class balances the load of the peers of a Chord network. At each
+ * step, the least loaded peer leaves the ring and joins it again at the
+ * identifier that splits the range of the most loaded peer in two halves.
+ * Repeated steps make the load of the peers converge toward the average load.
+ */
+public class Rebalancer {
+
+	/** A peer is overloaded when its load exceeds the average load by this
+	 * factor */
+	private static final double IMBALANCE_THRESHOLD = 1.5;
+
+	/** Minimum number of peers for a relocation to make sense: the hottest
+	 * peer, the lightest peer, and at least one other peer */
+	private static final int MIN_PEERS = 3;
+
+
+	private Rebalancer() {
+		// This class only contains static methods
+	}
+
+	/**
+	 * Performs one step of load balancing: the loads of all the peers are
+	 * read and, if a peer is overloaded, the least loaded peer is relocated
+	 * so that it splits the range of the overloaded peer.
+	 * @param tracker The tracker of the network, which provides the peer from 
+	 * which the ring is visited and records the new identifier of the 
+	 * relocated peer
+	 * @return true if a peer has been relocated
+	 * @throws RemoteException
+	 */
+	public static boolean rebalance(Tracker tracker) throws RemoteException {
+		Peer landmarkPeer = tracker.getRandomPeer();
+		List<Peer> peers = new ArrayList<Peer>();
+		List<PeerLoad> loads = new ArrayList<PeerLoad>();
+		long totalRequests = 0;
+		long totalEntries = 0;
+
+		// The loads of all the peers are read in a single turn around the ring
+		Peer peer = landmarkPeer;
+		do {
+			PeerLoad load = peer.getLoad();
+			peers.add(peer);
+			loads.add(load);
+			totalRequests += load.getRequests();
+			totalEntries += load.getEntries();
+			peer = peer.getSuccessor();
+		} while (!peer.equals(landmarkPeer));
+
+		if (peers.size() < MIN_PEERS) {
+			return false;
+		}
+
+		// The load of a peer is its share of the requests plus its share of
+		// the entries, so that both kinds of load are balanced
+		int hottest = 0;
+		int lightest = 0;
+		double[] scores = new double[peers.size()];
+		for (int i = 0 ; i < peers.size() ; i++) {
+			scores[i] = share(loads.get(i).getRequests(), totalRequests)
+					+ share(loads.get(i).getEntries(), totalEntries);
+			if (scores[i] > scores[hottest]) {
+				hottest = i;
+			}
+			if (scores[i] < scores[lightest]) {
+				lightest = i;
+			}
+		}
+
+		// The scores add up to the number of kinds of load that have been 
+		// measured: the requests are counted since the last step, so there 
+		// may be none of them
+		int dimensions = (totalRequests > 0 ? 1 : 0) 
+				+ (totalEntries > 0 ? 1 : 0);
+		if (dimensions == 0) {
+			return false;
+		}
+		double averageScore = (double) dimensions / peers.size();
+		if (hottest == lightest
+				|| scores[hottest] <= IMBALANCE_THRESHOLD * averageScore) {
+			return false;
+		}
+
+		Identifier splitPoint = peers.get(hottest).getSplitPoint();
+		if (splitPoint == null) {
+			return false;
+		}
+
+		// The relocation moves the entries of two ranges
+		int timeout = TimeoutSocketFactory.setTimeout(
+				TimeoutSocketFactory.BULK_TIMEOUT);
+		try {
+			peers.get(lightest).relocate(splitPoint);
+		} finally {
+			TimeoutSocketFactory.setTimeout(timeout);
+		}
+		tracker.relocated(peers.get(lightest));
+		return true;
+	}
+
+	/**
+	 * @param part
+	 * @param total
+	 * @return The share of part in total, or 0 if total is 0
+	 */
+	private static double share(long part, long total) {
+		return total == 0 ? 0 : (double) part / total;
+	}
+
+}
@@ -0,0 +1,152 @@
+package fr.unice.platdujour.chord;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class builds a Chord network from a list of peers that are all known 
+ * in advance. Instead of joining the peers one at a time and waiting for the 
+ * stabilizations to converge, the ring is sorted once, and the links and the 
+ * routing table of each peer are computed and set directly.
+ */
+public class RingBuilder {
+
+	/** Number of peers that are contacted at the same time */
+	private static final int NB_THREADS = 16;
+
+
+	private RingBuilder() {
+		// This class only contains static methods
+	}
+
+	/**
+	 * Links the specified peers into a ring. The peers must not belong to a 
+	 * network yet, and must have distinct identifiers.
+	 * @param peers The peers of the new network, in any order
+	 * @throws RemoteException If a peer could not be contacted
+	 */
+	public static void build(List<Peer> peers) throws RemoteException {
+		if (peers.isEmpty()) {
+			return;
+		}
+		if (peers.size() == 1) {
+			peers.get(0).create();
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+
+		try {
+			// The identifiers of the peers are read in parallel, then the 
+			// peers are sorted along the ring
+			List<Callable<Identifier>> idReads = 
+					new ArrayList<Callable<Identifier>>();
+			for (final Peer peer : peers) {
+				idReads.add(new Callable<Identifier>() {
+					@Override
+					public Identifier call() throws RemoteException {
+						return peer.getId();
+					}
+				});
+			}
+			List<Identifier> ids = getAll(executor.invokeAll(idReads));
+
+			final Identifier[] sortedIds = ids.toArray(new Identifier[0]);
+			Arrays.sort(sortedIds);
+			final Peer[] ring = new Peer[peers.size()];
+			for (int i = 0 ; i < ring.length ; i++) {
+				ring[Arrays.binarySearch(sortedIds, ids.get(i))] = peers.get(i);
+			}
+
+			// Each peer is then sent its links, computed from its position 
+			// in the ring
+			List<Callable<Void>> links = new ArrayList<Callable<Void>>();
+			for (int i = 0 ; i < ring.length ; i++) {
+				final int position = i;
+				links.add(new Callable<Void>() {
+					@Override
+					public Void call() throws RemoteException {
+						link(ring, sortedIds, position);
+						return null;
+					}
+				});
+			}
+			getAll(executor.invokeAll(links));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while building the ring", 
+					e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Sets the predecessor, the successor list and the fingers of a peer.
+	 * @param ring The peers, sorted by identifier
+	 * @param ids The identifiers of the peers, sorted
+	 * @param position The position of the peer in the ring
+	 * @throws RemoteException
+	 */
+	private static void link(Peer[] ring, Identifier[] ids, int position) 
+			throws RemoteException {
+		int size = ring.length;
+		Peer predecessor = ring[(position - 1 + size) % size];
+
+		List<Peer> successorList = new ArrayList<Peer>();
+		for (int i = 1 ; i <= Math.min(PeerImpl.SUCCESSOR_LIST_SIZE, size - 1) 
+				; i++) {
+			successorList.add(ring[(position + i) % size]);
+		}
+
+		// The i-th finger manages the identifier at distance 2^i: it is the 
+		// first peer whose identifier is not lower, wrapping around the ring
+		List<Peer> fingers = new ArrayList<Peer>();
+		List<Identifier> fingerIds = new ArrayList<Identifier>();
+		for (int i = 0 ; i < Identifier.NB_BITS ; i++) {
+			int index = Arrays.binarySearch(ids, ids[position].add(1L << i));
+			if (index < 0) {
+				index = -index - 1;
+			}
+			index %= size;
+			fingers.add(index == position ? null : ring[index]);
+			fingerIds.add(ids[index]);
+		}
+
+		ring[position].bootstrap(predecessor, successorList, fingers, 
+				fingerIds);
+	}
+
+	/**
+	 * @param futures Tasks that are done
+	 * @return The results of the tasks, in the same order
+	 * @throws RemoteException If a task failed
+	 * @throws InterruptedException
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures) 
+			throws RemoteException, InterruptedException {
+		List<T> results = new ArrayList<T>();
+
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RemoteException) {
+					throw (RemoteException) e.getCause();
+				}
+				throw new RemoteException("Could not contact a peer", 
+						e.getCause());
+			}
+		}
+
+		return results;
+	}
+
+}
@@ -0,0 +1,100 @@
+package fr.unice.platdujour.chord;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class deduplicates concurrent identical calls: while a call for a
+ * given key is in progress, the other calls for the same key wait for its
+ * result instead of performing the same remote operations again.
+ * @param <K> The type of the keys that identify identical calls
+ * @param <V> The type of the results of the calls
+ */
+public class SingleFlight<K, V> {
+
+	/** Maximum time, in milliseconds, a call waits for an identical call in
+	 * progress before performing the operation itself. It prevents a call
+	 * from waiting for itself, e.g. when a lookup comes back to the same
+	 * peer while the ring is being reorganized. */
+	private static final long MAX_WAIT = 1000;
+
+	/**
+	 * An operation whose result can be shared by identical calls.
+	 * @param <V> The type of the result of the operation
+	 */
+	public interface Call<V> {
+
+		/**
+		 * Performs the operation.
+		 * @return The result of the operation
+		 * @throws RemoteException
+		 */
+		V call() throws RemoteException;
+
+	}
+
+	/** Calls in progress, by key */
+	private final ConcurrentMap<K, FutureTask<V>> calls;
+
+
+	public SingleFlight() {
+		this.calls = new ConcurrentHashMap<K, FutureTask<V>>();
+	}
+
+	/**
+	 * Performs an operation, unless an identical call is already in progress,
+	 * in which case its result is returned instead.
+	 * @param key The key that identifies identical calls
+	 * @param call The operation to perform
+	 * @return The result of the operation
+	 * @throws RemoteException If the operation failed
+	 */
+	public V execute(K key, final Call<V> call) throws RemoteException {
+		FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+			@Override
+			public V call() throws RemoteException {
+				return call.call();
+			}
+		});
+		FutureTask<V> inProgress = this.calls.putIfAbsent(key, task);
+
+		try {
+			if (inProgress == null) {
+				// No identical call is in progress: this one performs the
+				// operation, and the next calls will perform it again
+				try {
+					task.run();
+				} finally {
+					this.calls.remove(key, task);
+				}
+				return task.get();
+			}
+			return inProgress.get(MAX_WAIT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return call.call();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RemoteException) {
+				throw (RemoteException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RemoteException("Call failed", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for a call",
+					e);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package fr.unice.platdujour.chord;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * This factory creates the sockets used to call a peer. The connection to a
+ * dead peer and the wait for the answer of a peer that hangs are both bounded
+ * by {@link #TIMEOUT}, so that a remote call to a failed peer quickly throws
+ * a RemoteException instead of waiting for the TCP timeouts. The factory is
+ * sent along with the stubs of the peers, so the timeout applies to every
+ * caller, whatever the settings of its JVM.
+ * <p>
+ * Some calls legitimately last longer, because they move the content of a 
+ * range of identifiers or wait for other peers to answer: the thread that 
+ * makes them raises its own timeout to {@link #BULK_TIMEOUT} with 
+ * {@link #setTimeout(int)}. The connections are shared between the threads, 
+ * so the timeout of the calling thread is applied before each read.
+ */
+class TimeoutSocketFactory implements RMIClientSocketFactory, Serializable {
+
+	/** Default serialization ID */
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum duration, in milliseconds, of a connection to a peer or of a
+	 * remote call, after which the peer is considered dead */
+	static final int TIMEOUT = 2000;
+
+	/** Maximum duration, in milliseconds, of a remote call that moves the 
+	 * entries of a range of identifiers or that waits for other peers, such 
+	 * as a relocation or a forwarded lookup */
+	static final int BULK_TIMEOUT = 30000;
+
+	/** Maximum duration of the remote calls made by each thread */
+	private static final ThreadLocal<Integer> timeouts = 
+			new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return TIMEOUT;
+		}
+	};
+
+	/**
+	 * Sets the maximum duration of the remote calls made by the current 
+	 * thread. The connections are always bounded by {@link #TIMEOUT}.
+	 * @param timeout The maximum duration, in milliseconds
+	 * @return The previous maximum duration, to restore once the calls are 
+	 * made
+	 */
+	static int setTimeout(int timeout) {
+		int previous = timeouts.get();
+		timeouts.set(timeout);
+		return previous;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = new TimeoutSocket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	// The RMI runtime shares the connections between the stubs whose socket
+	// factories are equal
+	@Override
+	public boolean equals(Object obj) {
+		return obj != null && obj.getClass() == this.getClass();
+	}
+
+	@Override
+	public int hashCode() {
+		return this.getClass().hashCode();
+	}
+
+	/**
+	 * A socket whose reads wait at most for the timeout of the reading 
+	 * thread.
+	 */
+	private static class TimeoutSocket extends Socket {
+
+		/** Stream of the socket, created on first use */
+		private InputStream input;
+
+		/** {@inheritDoc} */
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (this.input == null) {
+				this.input = new FilterInputStream(super.getInputStream()) {
+					@Override
+					public int read() throws IOException {
+						setSoTimeout(timeouts.get());
+						return super.read();
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len)
+							throws IOException {
+						setSoTimeout(timeouts.get());
+						return super.read(b, off, len);
+					}
+				};
+			}
+			return this.input;
+		}
+
+	}
+
+}
@@ -2,6 +2,7 @@ package fr.unice.platdujour.chord;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import fr.unice.platdujour.exceptions.AlreadyRegisteredException;
 
@@ -27,4 +28,18 @@ public interface Tracker extends Remote {
      */
     Peer getRandomPeer() throws RemoteException;
 
+    /**
+     * @return All the peers that have been registered, in registration order
+     * @throws RemoteException
+     */
+    List<Peer> getPeers() throws RemoteException;
+
+    /**
+     * Records the new identifier of a registered peer that has been 
+     * relocated on the ring.
+     * @param peer The peer that has been relocated
+     * @throws RemoteException
+     */
+    void relocated(Peer peer) throws RemoteException;
+
 }
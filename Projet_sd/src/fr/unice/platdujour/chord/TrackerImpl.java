@@ -7,7 +7,10 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import fr.unice.platdujour.exceptions.AlreadyRegisteredException;
@@ -24,6 +27,10 @@ public class TrackerImpl extends UnicastRemoteObject implements Tracker {
     /** List of peers that belong to the network */
     private final List<Peer> peers;
 
+    /** Registered peers by identifier, updated when a peer is relocated, 
+     * so that two peers are never registered with the same identifier */
+    private final Map<Identifier, Peer> ids;
+
     /** Used for random picking in the peer list*/
     private final Random randomGenerator;
 
@@ -31,6 +38,7 @@ public class TrackerImpl extends UnicastRemoteObject implements Tracker {
     public TrackerImpl(int port) throws RemoteException, MalformedURLException,
             AlreadyBoundException {
         this.peers = new ArrayList<Peer>();
+        this.ids = new HashMap<Identifier, Peer>();
         this.randomGenerator = new Random();
         // The tracker is a remotely accessible object: bind it to an RMI 
         // registry so that we can retrieve it at a well known address
@@ -42,20 +50,40 @@ public class TrackerImpl extends UnicastRemoteObject implements Tracker {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void register(Peer peer)
+    public void register(Peer peer)
             throws AlreadyRegisteredException, RemoteException {
-        if (this.peers.contains(peer)) {
-            throw new AlreadyRegisteredException(peer.getId());
-        }
+        // The peers are called without holding the lock of the tracker, so 
+        // that a slow peer does not block the other clients. The peer known 
+        // under the identifier is checked again under the lock, in case 
+        // another peer has been registered meanwhile.
+        Identifier id = peer.getId();
+        while (true) {
+            Peer registered;
+            synchronized (this) {
+                registered = this.ids.get(id);
+            }
+            // The peer known under this identifier may have been relocated 
+            // without the tracker being told, or may be dead: the identifier 
+            // is only taken if the peer still answers with it
+            if (registered != null && id.equals(idOf(registered))) {
+                throw new AlreadyRegisteredException(id);
+            }
 
-        this.peers.add(peer);
+            synchronized (this) {
+                if (this.ids.get(id) == registered) {
+                    this.ids.put(id, peer);
+                    this.peers.add(peer);
+                    return;
+                }
+            }
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Peer getRandomPeer() throws RemoteException {
+    public synchronized Peer getRandomPeer() throws RemoteException {
         if (this.peers.isEmpty()) {
             return null;
         }
@@ -63,4 +91,43 @@ public class TrackerImpl extends UnicastRemoteObject implements Tracker {
         return this.peers.get(this.randomGenerator.nextInt(this.peers.size()));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<Peer> getPeers() throws RemoteException {
+        return new ArrayList<Peer>(this.peers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void relocated(Peer peer) throws RemoteException {
+        Identifier id = peer.getId();
+
+        synchronized (this) {
+            Iterator<Peer> registered = this.ids.values().iterator();
+            while (registered.hasNext()) {
+                if (registered.next().equals(peer)) {
+                    registered.remove();
+                }
+            }
+            this.ids.put(id, peer);
+        }
+    }
+
+    /**
+     * @param peer
+     * @return The identifier of the specified peer, or null if the peer does 
+     * not answer
+     */
+    private static Identifier idOf(Peer peer) {
+        try {
+            return peer.getId();
+        } catch (RemoteException e) {
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,36 @@
+package fr.unice.platdujour.chord;
+
+/**
+ * This class stamps the listings of the restaurants managed by a peer. A
+ * version is the date at which the listing is written, in milliseconds since
+ * the epoch, unless the clock has already given this date or a later one: the
+ * next millisecond is given instead. The versions given by a clock thus
+ * strictly increase, even for listings written during the same millisecond,
+ * and the successive writes of a restaurant never depend on the order of
+ * their digests.
+ */
+public class VersionClock {
+
+	/** Last version given by the clock */
+	private long last;
+
+	/**
+	 * @return A version greater than all the versions given so far
+	 */
+	public synchronized long next() {
+		this.last = Math.max(System.currentTimeMillis(), this.last + 1);
+		return this.last;
+	}
+
+	/**
+	 * @param version A version that the next one must be greater than,
+	 * typically the version of the listing that is replaced
+	 * @return A version greater than the specified one and than all the
+	 * versions given so far
+	 */
+	public synchronized long next(long version) {
+		this.last = Math.max(this.last, version);
+		return this.next();
+	}
+
+}
@@ -0,0 +1,82 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the expiry of the daily specials whose time to live has elapsed.
+ */
+public class ExpiryTest {
+
+	/** Time to live of the expiring daily specials, in milliseconds */
+	private static final long TTL = 500;
+
+	/** Maximum time given to the peers to sweep the expired entries */
+	private static final long TIMEOUT = 10000;
+
+	private TestNetwork network;
+
+	private GuideMichelin guideMichelin;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.guideMichelin = new GuideMichelinImpl(this.network.getTracker());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testDailySpecialExpires() throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu", TTL);
+		this.guideMichelin.put("Louis XV", "Omelette");
+
+		assertEquals("Pot au feu", this.guideMichelin.get("Le Mirazur"));
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return ExpiryTest.this.guideMichelin.get("Le Mirazur")
+						== null;
+			}
+		}, TIMEOUT));
+		assertEquals("Omelette", this.guideMichelin.get("Louis XV"));
+	}
+
+	@Test
+	public void testExpiredDailySpecialIsUnindexed() throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu", TTL);
+
+		assertEquals(Collections.singleton("Le Mirazur"),
+				this.guideMichelin.getRestaurants("Pot au feu"));
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return ExpiryTest.this.guideMichelin
+						.getRestaurants("Pot au feu").isEmpty();
+			}
+		}, TIMEOUT));
+	}
+
+	@Test
+	public void testRewrittenDailySpecialGetsANewTimeToLive()
+			throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu", TTL);
+		this.guideMichelin.put("Le Mirazur", "Pot au feu");
+
+		Thread.sleep(2 * TTL);
+		assertEquals("Pot au feu", this.guideMichelin.get("Le Mirazur"));
+	}
+
+}
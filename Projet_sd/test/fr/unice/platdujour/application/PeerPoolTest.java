@@ -0,0 +1,113 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.application.PeerPool.Operation;
+import fr.unice.platdujour.chord.Peer;
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the retries and the hedging of the operations of the pool of entry
+ * peers.
+ */
+public class PeerPoolTest {
+
+	/** Time taken by the slow attempts, in milliseconds */
+	private static final long SLOW_ATTEMPT = 3000;
+
+	private TestNetwork network;
+
+	private PeerPool pool;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.pool = new PeerPool(this.network.getTracker());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testFailedOperationIsRetriedOnAnotherPeer() throws Exception {
+		final List<Peer> entryPeers =
+				Collections.synchronizedList(new ArrayList<Peer>());
+
+		String result = this.pool.execute(new Operation<String>() {
+			@Override
+			public String execute(Peer entryPeer) throws RemoteException {
+				entryPeers.add(entryPeer);
+				if (entryPeers.size() == 1) {
+					throw new RemoteException("First attempt");
+				}
+				return "Second attempt";
+			}
+		});
+
+		assertEquals("Second attempt", result);
+		assertEquals(2, new HashSet<Peer>(entryPeers).size());
+	}
+
+	@Test
+	public void testOperationIsTriedAtMostThreeTimes() throws Exception {
+		final List<Peer> entryPeers =
+				Collections.synchronizedList(new ArrayList<Peer>());
+
+		try {
+			this.pool.execute(new Operation<String>() {
+				@Override
+				public String execute(Peer entryPeer) throws RemoteException {
+					entryPeers.add(entryPeer);
+					throw new RemoteException("Attempt " + entryPeers.size());
+				}
+			});
+			fail("The operation never succeeds");
+		} catch (RemoteException e) {
+			assertEquals("Attempt 3", e.getMessage());
+		}
+		assertEquals(3, new HashSet<Peer>(entryPeers).size());
+	}
+
+	@Test
+	public void testHedgedOperationAnswersWithoutTheSlowAttempt()
+			throws Exception {
+		final List<Peer> entryPeers =
+				Collections.synchronizedList(new ArrayList<Peer>());
+
+		long start = System.currentTimeMillis();
+		String result = this.pool.executeHedged(new Operation<String>() {
+			@Override
+			public String execute(Peer entryPeer) throws RemoteException {
+				entryPeers.add(entryPeer);
+				if (entryPeers.size() == 1) {
+					try {
+						Thread.sleep(SLOW_ATTEMPT);
+					} catch (InterruptedException e) {
+						throw new RemoteException("Cancelled", e);
+					}
+					return "Slow attempt";
+				}
+				return "Hedged attempt";
+			}
+		});
+
+		assertEquals("Hedged attempt", result);
+		assertTrue(System.currentTimeMillis() - start < SLOW_ATTEMPT);
+	}
+
+}
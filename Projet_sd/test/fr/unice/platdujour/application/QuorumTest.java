@@ -0,0 +1,118 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.chord.Key;
+import fr.unice.platdujour.chord.Listing;
+import fr.unice.platdujour.chord.Peer;
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the reads and the writes made at a consistency level, along with 
+ * the versions of the listings.
+ */
+public class QuorumTest {
+
+	/** Time to live of the listings, long enough for the whole test */
+	private static final long TTL = 60000;
+
+	/** Number of rounds of writes to the same restaurant */
+	private static final int NB_ROUNDS = 100;
+
+	private TestNetwork network;
+
+	private GuideMichelin guideMichelin;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.guideMichelin = new GuideMichelinImpl(this.network.getTracker());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testReadAllReturnsWriteAll() throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu", TTL, 
+				ConsistencyLevel.ALL);
+
+		for (ConsistencyLevel level : ConsistencyLevel.values()) {
+			assertEquals("Pot au feu", 
+					this.guideMichelin.get("Le Mirazur", level));
+		}
+	}
+
+	@Test
+	public void testWriteIsStoredOnAllReplicas() throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu", TTL, 
+				ConsistencyLevel.ALL);
+
+		List<Peer> replicas = this.owner("Le Mirazur").getReplicas();
+		assertEquals(3, replicas.size());
+		for (Peer replica : replicas) {
+			assertEquals("Pot au feu", replica.get("Le Mirazur"));
+		}
+	}
+
+	@Test
+	public void testWritesOfDifferentWritersKeepTheirOrder() throws Exception {
+		// A plain write and a write at a consistency level, made one after 
+		// the other, are versioned in this order even if they are made 
+		// during the same millisecond
+		for (int round = 0 ; round < NB_ROUNDS ; round++) {
+			this.guideMichelin.put("Le Mirazur", "Plain " + round, TTL);
+			this.guideMichelin.put("Le Mirazur", "All " + round, TTL, 
+					ConsistencyLevel.ALL);
+			assertEquals("All " + round, 
+					this.guideMichelin.get("Le Mirazur", ConsistencyLevel.ALL));
+		}
+	}
+
+	@Test
+	public void testVersionsOfARestaurantStrictlyIncrease() throws Exception {
+		Peer owner = this.owner("Le Mirazur");
+		long version = 0;
+
+		for (int i = 0 ; i < NB_ROUNDS ; i++) {
+			Listing listing = owner.stamp("Le Mirazur", "Dish" + i, 
+					Listing.NEVER);
+			assertTrue(listing.getVersion() > version);
+			version = listing.getVersion();
+		}
+	}
+
+	@Test
+	public void testOutdatedWriteIsRejected() throws Exception {
+		Peer owner = this.owner("Le Mirazur");
+		Listing older = owner.stamp("Le Mirazur", "Pot au feu", Listing.NEVER);
+		Listing newer = owner.stamp("Le Mirazur", "Omelette", Listing.NEVER);
+
+		assertTrue(owner.write(newer));
+		assertFalse(owner.write(older));
+		// A write sent again after a failure is acknowledged again
+		assertTrue(owner.write(newer));
+		assertEquals("Omelette", owner.get("Le Mirazur"));
+	}
+
+	/**
+	 * @param restaurant The name of a restaurant
+	 * @return The peer that manages the restaurant
+	 * @throws Exception
+	 */
+	private Peer owner(String restaurant) throws Exception {
+		return this.network.getPeer(0).findSuccessor(new Key(restaurant));
+	}
+
+}
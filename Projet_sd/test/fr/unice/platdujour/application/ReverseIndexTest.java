@@ -0,0 +1,109 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the reverse index, from daily specials to the restaurants that serve 
+ * them.
+ */
+public class ReverseIndexTest {
+
+	/** Number of clients that write the same restaurants at the same time */
+	private static final int NB_WRITERS = 8;
+
+	/** Number of rounds of concurrent writes */
+	private static final int NB_ROUNDS = 20;
+
+	private TestNetwork network;
+
+	private GuideMichelin guideMichelin;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.guideMichelin = new GuideMichelinImpl(this.network.getTracker());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testRestaurantIsFoundByItsDailySpecial() throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu");
+		this.guideMichelin.put("Louis XV", "Pot au feu");
+		this.guideMichelin.put("Yoshi", "Sushi");
+
+		assertEquals(2, 
+				this.guideMichelin.getRestaurants("Pot au feu").size());
+		assertEquals(Collections.singleton("Yoshi"), 
+				this.guideMichelin.getRestaurants("Sushi"));
+		assertTrue(this.guideMichelin.getRestaurants("Paella").isEmpty());
+	}
+
+	@Test
+	public void testReplacedDailySpecialIsUnindexed() throws Exception {
+		this.guideMichelin.put("Le Mirazur", "Pot au feu");
+		this.guideMichelin.put("Le Mirazur", "Omelette");
+
+		assertTrue(this.guideMichelin.getRestaurants("Pot au feu").isEmpty());
+		assertEquals(Collections.singleton("Le Mirazur"), 
+				this.guideMichelin.getRestaurants("Omelette"));
+	}
+
+	@Test
+	public void testConcurrentWritesOnlyLinkTheCurrentDailySpecial() 
+			throws Exception {
+		ExecutorService writers = Executors.newFixedThreadPool(NB_WRITERS);
+
+		try {
+			for (int round = 0 ; round < NB_ROUNDS ; round++) {
+				final String restaurant = "Restaurant " + round;
+				List<Future<Void>> writes = new ArrayList<Future<Void>>();
+				for (int i = 0 ; i < NB_WRITERS ; i++) {
+					final String dailySpecial = "Dish" + i;
+					writes.add(writers.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							ReverseIndexTest.this.guideMichelin.put(
+									restaurant, dailySpecial);
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> write : writes) {
+					write.get();
+				}
+
+				String current = this.guideMichelin.get(restaurant);
+				for (int i = 0 ; i < NB_WRITERS ; i++) {
+					String dailySpecial = "Dish" + i;
+					assertEquals(dailySpecial + " in round " + round,
+							dailySpecial.equals(current),
+							this.guideMichelin.getRestaurants(dailySpecial)
+									.contains(restaurant));
+				}
+			}
+		} finally {
+			writers.shutdown();
+		}
+	}
+
+}
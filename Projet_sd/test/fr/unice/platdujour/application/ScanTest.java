@@ -0,0 +1,97 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the scans of the GuideMichelin, page by page.
+ */
+public class ScanTest {
+
+	/** Number of restaurants written in the guide */
+	private static final int NB_RESTAURANTS = 25;
+
+	/** Number of entries of the pages that are read */
+	private static final int PAGE_SIZE = 10;
+
+	private TestNetwork network;
+
+	private GuideMichelin guideMichelin;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.guideMichelin = new GuideMichelinImpl(this.network.getTracker());
+		for (int i = 0 ; i < NB_RESTAURANTS ; i++) {
+			this.guideMichelin.put(String.format("Restaurant %02d", i),
+					"Plat " + i);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testPagesCoverEveryRestaurantOnceInOrder() throws Exception {
+		List<String> restaurants = new ArrayList<String>();
+		List<Integer> pageSizes = new ArrayList<Integer>();
+		String from = "";
+		while (true) {
+			SortedMap<String, String> page =
+					this.guideMichelin.scan(from, PAGE_SIZE);
+			if (page.isEmpty()) {
+				break;
+			}
+			pageSizes.add(page.size());
+			restaurants.addAll(page.keySet());
+			from = page.lastKey() + '\0';
+		}
+
+		assertEquals(NB_RESTAURANTS, restaurants.size());
+		for (int i = 0 ; i < NB_RESTAURANTS ; i++) {
+			assertEquals(String.format("Restaurant %02d", i),
+					restaurants.get(i));
+		}
+		assertEquals(3, pageSizes.size());
+		assertEquals(Integer.valueOf(PAGE_SIZE), pageSizes.get(0));
+		assertEquals(Integer.valueOf(PAGE_SIZE), pageSizes.get(1));
+		assertEquals(Integer.valueOf(5), pageSizes.get(2));
+	}
+
+	@Test
+	public void testPageStartsAtTheRequestedRestaurant() throws Exception {
+		SortedMap<String, String> page =
+				this.guideMichelin.scan("Restaurant 10", 2);
+
+		assertEquals(2, page.size());
+		assertEquals("Restaurant 10", page.firstKey());
+		assertEquals("Plat 10", page.get("Restaurant 10"));
+		assertEquals("Restaurant 11", page.lastKey());
+	}
+
+	@Test
+	public void testEmptyPages() throws Exception {
+		assertTrue(this.guideMichelin.scan("", 0).isEmpty());
+		assertTrue(this.guideMichelin.scan("Restaurant 99", PAGE_SIZE)
+				.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativePageSizeIsRejected() throws Exception {
+		this.guideMichelin.scan("", -1);
+	}
+
+}
@@ -0,0 +1,119 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.chord.DailySpecialListener;
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the notifications of the changes of the daily specials.
+ */
+public class WatchTest {
+
+	/** Watched restaurant */
+	private static final String RESTAURANT = "Le Mirazur";
+
+	/** Maximum time given to a notification to arrive */
+	private static final long TIMEOUT = 5000;
+
+	private TestNetwork network;
+
+	private GuideMichelin guideMichelin;
+
+	/** Daily specials notified to the listener, in order */
+	private List<String> notified;
+
+	private DailySpecialListener listener;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.guideMichelin = new GuideMichelinImpl(this.network.getTracker());
+		this.notified = new ArrayList<String>();
+		this.listener = new DailySpecialListener() {
+			@Override
+			public void dailySpecialChanged(String restaurant,
+					String dailySpecial) {
+				synchronized (WatchTest.this.notified) {
+					WatchTest.this.notified.add(dailySpecial);
+				}
+			}
+		};
+		UnicastRemoteObject.exportObject(this.listener, 0);
+		this.guideMichelin.watch(RESTAURANT, this.listener);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		UnicastRemoteObject.unexportObject(this.listener, true);
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testChangesAreNotified() throws Exception {
+		this.guideMichelin.put(RESTAURANT, "Pot au feu");
+		assertTrue(this.awaitLastNotified("Pot au feu"));
+
+		this.guideMichelin.put(RESTAURANT, "Omelette");
+		assertTrue(this.awaitLastNotified("Omelette"));
+	}
+
+	@Test
+	public void testLastOfSuccessiveChangesIsNotified() throws Exception {
+		for (int i = 0 ; i < 20 ; i++) {
+			this.guideMichelin.put(RESTAURANT, "Plat " + i);
+		}
+		assertTrue(this.awaitLastNotified("Plat 19"));
+	}
+
+	@Test
+	public void testExpiryIsNotified() throws Exception {
+		this.guideMichelin.put(RESTAURANT, "Pot au feu", 500);
+		assertTrue(this.awaitLastNotified(null));
+	}
+
+	@Test
+	public void testUnwatchedRestaurantIsNotNotified() throws Exception {
+		this.guideMichelin.put(RESTAURANT, "Pot au feu");
+		assertTrue(this.awaitLastNotified("Pot au feu"));
+
+		this.guideMichelin.unwatch(RESTAURANT, this.listener);
+		this.guideMichelin.put(RESTAURANT, "Omelette");
+		assertFalse(this.awaitLastNotified("Omelette"));
+	}
+
+	/**
+	 * Waits until the listener has been notified of a daily special last.
+	 * @param dailySpecial The expected daily special
+	 * @return true if it has been notified, false if the timeout elapsed
+	 * @throws Exception
+	 */
+	private boolean awaitLastNotified(final String dailySpecial)
+			throws Exception {
+		return TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() {
+				synchronized (WatchTest.this.notified) {
+					if (WatchTest.this.notified.isEmpty()) {
+						return false;
+					}
+					String last = WatchTest.this.notified.get(
+							WatchTest.this.notified.size() - 1);
+					return dailySpecial == null ? last == null
+							: dailySpecial.equals(last);
+				}
+			}
+		}, TIMEOUT);
+	}
+
+}
@@ -0,0 +1,131 @@
+package fr.unice.platdujour.application;
+
+import static org.junit.Assert.assertEquals;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.chord.Key;
+import fr.unice.platdujour.chord.Listing;
+import fr.unice.platdujour.chord.TestNetwork;
+
+/**
+ * Tests the writes made in the background, in groups.
+ */
+public class WriteBehindQueueTest {
+
+	/** Number of listings queued by each test */
+	private static final int NB_LISTINGS = 1000;
+
+	/** Maximum duration of a test, in milliseconds */
+	private static final long TIMEOUT = 60000;
+
+	private TestNetwork network;
+
+	/** Number of listings reported as committed */
+	private AtomicInteger committed;
+
+	/** Number of listings reported as failed */
+	private AtomicInteger failed;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(4);
+		this.committed = new AtomicInteger();
+		this.failed = new AtomicInteger();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void testQueuedListingsAreCommitted() throws Exception {
+		WriteBehindQueue queue = this.newQueue(false);
+		this.addListings(queue, 0);
+		queue.flush();
+
+		assertEquals(NB_LISTINGS, this.committed.get());
+		assertEquals(0, this.failed.get());
+		for (int i = 0 ; i < NB_LISTINGS ; i += 100) {
+			String restaurant = "Restaurant " + i;
+			assertEquals("Plat " + i, this.network.getPeer(0)
+					.findSuccessor(new Key(restaurant)).get(restaurant));
+		}
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void testFailingListenerDoesNotStopTheQueue() throws Exception {
+		WriteBehindQueue queue = this.newQueue(true);
+		this.addListings(queue, 0);
+		queue.flush();
+		this.addListings(queue, NB_LISTINGS);
+		queue.flush();
+
+		assertEquals(2 * NB_LISTINGS, this.committed.get());
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void testListingsThatCannotBeWrittenAreReported()
+			throws Exception {
+		WriteBehindQueue queue = this.newQueue(false);
+		for (int i = 0 ; i < this.network.size() ; i++) {
+			this.network.getPeerImpl(i).die();
+		}
+		this.addListings(queue, 0);
+		queue.flush();
+
+		assertEquals(0, this.committed.get());
+		assertEquals(NB_LISTINGS, this.failed.get());
+	}
+
+	/**
+	 * @param throwing true if the listener throws an exception once it has
+	 * counted the listings
+	 * @return A queue that writes in the network
+	 */
+	private WriteBehindQueue newQueue(final boolean throwing) {
+		return new WriteBehindQueue(new PeerPool(this.network.getTracker()),
+				new BatchListener() {
+			@Override
+			public void committed(List<Listing> listings) {
+				WriteBehindQueueTest.this.committed.addAndGet(
+						listings.size());
+				if (throwing) {
+					throw new IllegalStateException("Listener failure");
+				}
+			}
+
+			@Override
+			public void failed(List<Listing> listings,
+					RemoteException cause) {
+				WriteBehindQueueTest.this.failed.addAndGet(listings.size());
+				if (throwing) {
+					throw new IllegalStateException("Listener failure");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues {@link #NB_LISTINGS} listings of distinct restaurants.
+	 * @param queue The queue of the listings
+	 * @param first The number of the first restaurant
+	 * @throws InterruptedException
+	 */
+	private void addListings(WriteBehindQueue queue, int first)
+			throws InterruptedException {
+		for (int i = first ; i < first + NB_LISTINGS ; i++) {
+			queue.add(new Listing("Restaurant " + i, "Plat " + i,
+					Listing.NEVER, 0));
+		}
+	}
+
+}
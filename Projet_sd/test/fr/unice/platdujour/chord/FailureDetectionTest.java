@@ -0,0 +1,109 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.RemoteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the repair of the ring when a peer dies.
+ */
+public class FailureDetectionTest {
+
+	/** Maximum time given to the ring to heal */
+	private static final long TIMEOUT = 20000;
+
+	private TestNetwork network;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(5);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testNeighborsOfADeadPeerAreLinked() throws Exception {
+		final Peer predecessor = this.network.getPeer(1);
+		final Peer successor = this.network.getPeer(3);
+		this.network.getPeerImpl(2).die();
+
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				// The successor forgets the dead peer, then takes the 
+				// predecessor that notifies it
+				try {
+					Peer predecessorOfSuccessor = successor.getPredecessor();
+					return predecessor.getSuccessor().getId().equals(
+									new Identifier(300))
+							&& predecessorOfSuccessor != null
+							&& predecessorOfSuccessor.getId().equals(
+									new Identifier(100));
+				} catch (RemoteException e) {
+					return false;
+				}
+			}
+		}, TIMEOUT));
+	}
+
+	@Test
+	public void testKeysOfADeadPeerAreManagedByItsSuccessor()
+			throws Exception {
+		final Peer entryPeer = this.network.getPeer(0);
+		this.network.getPeerImpl(2).die();
+
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return entryPeer.findSuccessor(new Identifier(150)).getId()
+						.equals(new Identifier(300));
+			}
+		}, TIMEOUT));
+	}
+
+	@Test
+	public void testListingsOfADeadPeerAreStillRead() throws Exception {
+		// The key of the restaurant is managed by the peer that dies
+		String restaurant = null;
+		for (int i = 0 ; restaurant == null ; i++) {
+			if (new Key("Restaurant " + i).isBetweenOpenClosed(
+					new Identifier(100), new Identifier(200))) {
+				restaurant = "Restaurant " + i;
+			}
+		}
+		final String deadRestaurant = restaurant;
+		final Peer entryPeer = this.network.getPeer(0);
+		entryPeer.findSuccessor(new Key(deadRestaurant))
+				.put(deadRestaurant, "Pot au feu");
+
+		// The listing is copied to the replicas before the peer dies
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return FailureDetectionTest.this.network.getPeerImpl(3)
+						.get(deadRestaurant) != null;
+			}
+		}, TIMEOUT));
+		this.network.getPeerImpl(2).die();
+
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return entryPeer.findSuccessor(new Key(deadRestaurant))
+						.getId().equals(new Identifier(300));
+			}
+		}, TIMEOUT));
+		assertEquals("Pot au feu", entryPeer.findSuccessor(
+				new Key(deadRestaurant)).get(deadRestaurant));
+	}
+
+}
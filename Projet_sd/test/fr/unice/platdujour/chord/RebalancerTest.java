@@ -0,0 +1,86 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the relocation of the peers to balance the load of the ring.
+ */
+public class RebalancerTest {
+
+	/** Number of restaurants written in the network */
+	private static final int NB_RESTAURANTS = 40;
+
+	/** Maximum time given to the ring to settle after a relocation */
+	private static final long TIMEOUT = 20000;
+
+	private TestNetwork network;
+
+
+	@Before
+	public void setUp() throws Exception {
+		// The peers have the identifiers 0 to 400, so the first one manages
+		// most of the keys
+		this.network = new TestNetwork(5);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testEmptyNetworkIsNotRebalanced() throws Exception {
+		assertFalse(Rebalancer.rebalance(this.network.getTracker()));
+	}
+
+	@Test
+	public void testHotRangeIsSplitWithoutAnyRequest() throws Exception {
+		final Peer entryPeer = this.network.getPeer(0);
+		for (int i = 0 ; i < NB_RESTAURANTS ; i++) {
+			String restaurant = "Restaurant " + i;
+			entryPeer.findSuccessor(new Key(restaurant))
+					.put(restaurant, "Plat " + i);
+		}
+		// The requests made by the writes are forgotten, so that only the
+		// entries are measured
+		for (int i = 0 ; i < this.network.size() ; i++) {
+			this.network.getPeer(i).getLoad();
+		}
+
+		assertTrue(Rebalancer.rebalance(this.network.getTracker()));
+
+		// A peer has moved into the range of the first peer
+		boolean split = false;
+		for (Peer peer : this.network.getTracker().getPeers()) {
+			if (peer.getId().isBetweenOpenOpen(new Identifier(400),
+					new Identifier(0))) {
+				split = true;
+			}
+		}
+		assertTrue(split);
+
+		// No listing has been lost on the way
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				for (int i = 0 ; i < NB_RESTAURANTS ; i++) {
+					String restaurant = "Restaurant " + i;
+					if (!("Plat " + i).equals(entryPeer.findSuccessor(
+							new Key(restaurant)).get(restaurant))) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}, TIMEOUT));
+		assertEquals(this.network.size(),
+				this.network.getTracker().getPeers().size());
+	}
+
+}
@@ -0,0 +1,122 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.RemoteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the synchronization of the replicas of the listings.
+ */
+public class ReplicationTest {
+
+	/** Number of restaurants written in the network */
+	private static final int NB_RESTAURANTS = 30;
+
+	/** Maximum time given to the replicas to be synchronized */
+	private static final long TIMEOUT = 30000;
+
+	private TestNetwork network;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(6);
+		for (int i = 0 ; i < NB_RESTAURANTS ; i++) {
+			String restaurant = "Restaurant " + i;
+			this.network.getPeer(0).findSuccessor(new Key(restaurant))
+					.put(restaurant, "Plat " + i);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testListingsAreCopiedToTheReplicas() throws Exception {
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return holdsReplicationFactorCopies();
+			}
+		}, TIMEOUT));
+	}
+
+	@Test
+	public void testStrayCopiesAreDroppedAfterRelocation() throws Exception {
+		TestNetwork.Condition replicated = new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return holdsReplicationFactorCopies();
+			}
+		};
+		assertTrue(TestNetwork.await(replicated, TIMEOUT));
+
+		// The copies kept by the peers that no longer replicate the 
+		// restaurants are removed once the ring has settled
+		Peer peer = this.network.getPeer(3);
+		peer.relocate(new Identifier(2000));
+		this.network.getTracker().relocated(peer);
+		assertTrue(TestNetwork.await(replicated, TIMEOUT));
+	}
+
+	@Test
+	public void testNewestListingOfAReplicaIsCopiedToTheOthers()
+			throws Exception {
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				return holdsReplicationFactorCopies();
+			}
+		}, TIMEOUT));
+
+		// A replica of the restaurant receives a listing that the peer 
+		// that manages it has missed
+		final String restaurant = "Restaurant 0";
+		final Peer owner = this.network.getPeer(0).findSuccessor(
+				new Key(restaurant));
+		Listing listing = owner.read(restaurant);
+		Peer replica = owner.getSuccessorList().get(1);
+		replica.write(new Listing(restaurant, "Nouveau plat", 
+				Listing.NEVER, listing.getVersion() + 1));
+
+		assertTrue(TestNetwork.await(new TestNetwork.Condition() {
+			@Override
+			public boolean holds() throws Exception {
+				for (Peer peer : owner.getReplicas()) {
+					if (!"Nouveau plat".equals(peer.get(restaurant))) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}, TIMEOUT));
+	}
+
+	/**
+	 * @return true if every restaurant is stored by exactly three peers, the 
+	 * replication factor of the network
+	 * @throws RemoteException
+	 */
+	private boolean holdsReplicationFactorCopies() throws RemoteException {
+		for (int i = 0 ; i < NB_RESTAURANTS ; i++) {
+			int copies = 0;
+			for (int j = 0 ; j < this.network.size() ; j++) {
+				if (this.network.getPeerImpl(j).get("Restaurant " + i)
+						!= null) {
+					copies++;
+				}
+			}
+			if (copies != 3) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
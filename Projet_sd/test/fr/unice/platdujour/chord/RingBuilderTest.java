@@ -0,0 +1,86 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the links given to the peers of a ring built at once.
+ */
+public class RingBuilderTest {
+
+	/** Number of peers of the ring */
+	private static final int NB_PEERS = 8;
+
+	/** Peers of the ring, sorted by identifier */
+	private List<PeerImpl> peers;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.peers = new ArrayList<PeerImpl>();
+		for (int i = 0 ; i < NB_PEERS ; i++) {
+			this.peers.add(new PeerImpl(new Identifier(i * 100)));
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (PeerImpl peer : this.peers) {
+			peer.die();
+		}
+	}
+
+	@Test
+	public void testPeersAreLinkedInTheOrderOfTheirIdentifiers()
+			throws Exception {
+		// The peers are given in any order
+		List<Peer> shuffled = new ArrayList<Peer>(this.peers);
+		Collections.shuffle(shuffled, new Random(0));
+		RingBuilder.build(shuffled);
+
+		for (int i = 0 ; i < NB_PEERS ; i++) {
+			Peer peer = this.peers.get(i);
+			assertEquals(this.peers.get((i + 1) % NB_PEERS),
+					peer.getSuccessor());
+			assertEquals(this.peers.get((i - 1 + NB_PEERS) % NB_PEERS),
+					peer.getPredecessor());
+
+			List<Peer> successorList = peer.getSuccessorList();
+			assertEquals(PeerImpl.SUCCESSOR_LIST_SIZE, successorList.size());
+			for (int j = 0 ; j < successorList.size() ; j++) {
+				assertEquals(this.peers.get((i + j + 1) % NB_PEERS),
+						successorList.get(j));
+			}
+		}
+	}
+
+	@Test
+	public void testLookupsAreRoutedAtOnce() throws Exception {
+		RingBuilder.build(new ArrayList<Peer>(this.peers));
+
+		// The key 250 is managed by the peer 300, whatever the entry peer
+		for (PeerImpl peer : this.peers) {
+			assertEquals(new Identifier(300),
+					peer.findSuccessor(new Identifier(250)).getId());
+		}
+	}
+
+	@Test
+	public void testSinglePeerIsItsOwnSuccessor() throws Exception {
+		PeerImpl peer = this.peers.get(0);
+		RingBuilder.build(Collections.<Peer>singletonList(peer));
+
+		assertEquals(peer, peer.getSuccessor());
+		assertNull(peer.getPredecessor());
+	}
+
+}
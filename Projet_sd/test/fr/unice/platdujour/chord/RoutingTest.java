@@ -0,0 +1,84 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the lookups, routed through the fingers and the measured contacts of
+ * the peers.
+ */
+public class RoutingTest {
+
+	/** Number of peers of the network */
+	private static final int NB_PEERS = 10;
+
+	/** Bound of the keys given to the restaurants */
+	private static final int MAX_KEY = 3100;
+
+	/** Step between the looked up identifiers */
+	private static final int KEY_STEP = 37;
+
+	/** Round trip time between two peers of different racks */
+	private static final long REMOTE_RACK_RTT = 20;
+
+	private TestNetwork network;
+
+
+	@After
+	public void tearDown() throws Exception {
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testLookupsFindTheManagerOfTheKey() throws Exception {
+		this.network = new TestNetwork(NB_PEERS);
+
+		this.checkLookups();
+	}
+
+	@Test
+	public void testLookupsAvoidingSlowLinksFindTheManagerOfTheKey()
+			throws Exception {
+		// The peers are spread over two racks, and the links between the
+		// racks are slow
+		this.network = new TestNetwork(NB_PEERS, new LinkLatency() {
+			@Override
+			public long getRoundTripTime(Identifier from, Identifier to) {
+				return rack(from) == rack(to) ? 0 : REMOTE_RACK_RTT;
+			}
+		});
+		// The round trip times are measured by the maintenance of the peers
+		Thread.sleep(2000);
+
+		this.checkLookups();
+	}
+
+	/**
+	 * Looks up identifiers all over the ring from each peer, and checks that
+	 * the peer found is the first one whose identifier is not smaller.
+	 * @throws Exception
+	 */
+	private void checkLookups() throws Exception {
+		for (int i = 0 ; i < NB_PEERS ; i++) {
+			Peer entryPeer = this.network.getPeer(i);
+			for (int key = 0 ; key < MAX_KEY ; key += KEY_STEP) {
+				int expected = key > (NB_PEERS - 1) * 100 ? 0
+						: (key + 99) / 100 * 100;
+				assertEquals("Lookup of " + key + " from " + i * 100,
+						new Identifier(expected),
+						entryPeer.findSuccessor(new Identifier(key)).getId());
+			}
+		}
+	}
+
+	/**
+	 * @param id The identifier of a peer
+	 * @return The rack of the peer
+	 */
+	private static int rack(Identifier id) {
+		return id.compareTo(new Identifier(500)) < 0 ? 0 : 1;
+	}
+
+}
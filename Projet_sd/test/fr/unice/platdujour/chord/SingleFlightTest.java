@@ -0,0 +1,149 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the deduplication of concurrent identical calls.
+ */
+public class SingleFlightTest {
+
+	/** Number of identical calls made at the same time */
+	private static final int NB_CALLERS = 8;
+
+	/** Time given to the callers to reach the call in progress */
+	private static final long CALLERS_DELAY = 200;
+
+	private SingleFlight<String, String> singleFlight;
+
+	private ExecutorService callers;
+
+	/** Number of times the operation has been performed */
+	private AtomicInteger executions;
+
+	/** Released to let the operation in progress finish */
+	private CountDownLatch release;
+
+
+	@Before
+	public void setUp() {
+		this.singleFlight = new SingleFlight<String, String>();
+		this.callers = Executors.newFixedThreadPool(NB_CALLERS);
+		this.executions = new AtomicInteger();
+		this.release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		this.callers.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentCallsShareOneExecution() throws Exception {
+		List<Future<String>> results = this.callConcurrently("Le Mirazur",
+				new SingleFlight.Call<String>() {
+			@Override
+			public String call() throws RemoteException {
+				SingleFlightTest.this.executions.incrementAndGet();
+				SingleFlightTest.this.await();
+				return "Pot au feu";
+			}
+		});
+
+		for (Future<String> result : results) {
+			assertEquals("Pot au feu", result.get());
+		}
+		assertEquals(1, this.executions.get());
+	}
+
+	@Test
+	public void testFailureIsSharedByConcurrentCalls() throws Exception {
+		List<Future<String>> results = this.callConcurrently("Le Mirazur",
+				new SingleFlight.Call<String>() {
+			@Override
+			public String call() throws RemoteException {
+				SingleFlightTest.this.executions.incrementAndGet();
+				SingleFlightTest.this.await();
+				throw new RemoteException("Peer unreachable");
+			}
+		});
+
+		for (Future<String> result : results) {
+			try {
+				result.get();
+				fail("The call failed");
+			} catch (ExecutionException e) {
+				assertEquals(RemoteException.class, e.getCause().getClass());
+			}
+		}
+		assertEquals(1, this.executions.get());
+	}
+
+	@Test
+	public void testSuccessiveCallsAreNotShared() throws Exception {
+		SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+			@Override
+			public String call() {
+				return "Call " + SingleFlightTest.this.executions
+						.incrementAndGet();
+			}
+		};
+
+		assertEquals("Call 1", this.singleFlight.execute("Le Mirazur", call));
+		assertEquals("Call 2", this.singleFlight.execute("Le Mirazur", call));
+		assertEquals("Call 3", this.singleFlight.execute("Louis XV", call));
+	}
+
+	/**
+	 * Makes {@link #NB_CALLERS} identical calls at the same time, and lets
+	 * the operation finish once they have all been made.
+	 * @param key The key of the calls
+	 * @param call The operation of the calls
+	 * @return The results of the calls
+	 * @throws InterruptedException
+	 */
+	private List<Future<String>> callConcurrently(final String key,
+			final SingleFlight.Call<String> call) throws InterruptedException {
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0 ; i < NB_CALLERS ; i++) {
+			results.add(this.callers.submit(new Callable<String>() {
+				@Override
+				public String call() throws RemoteException {
+					return SingleFlightTest.this.singleFlight.execute(key,
+							call);
+				}
+			}));
+		}
+		Thread.sleep(CALLERS_DELAY);
+		this.release.countDown();
+		return results;
+	}
+
+	/**
+	 * Waits until the operation in progress is allowed to finish.
+	 * @throws RemoteException If the wait is interrupted
+	 */
+	private void await() throws RemoteException {
+		try {
+			this.release.await();
+		} catch (InterruptedException e) {
+			throw new RemoteException("Interrupted", e);
+		}
+	}
+
+}
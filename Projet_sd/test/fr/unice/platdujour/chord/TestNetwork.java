@@ -0,0 +1,141 @@
+package fr.unice.platdujour.chord;
+
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs a small Chord network in the JVM of the tests. The peers 
+ * are reached through their stubs, as they would be from another JVM, and 
+ * the ring is linked at once by the {@link RingBuilder}.
+ */
+public class TestNetwork {
+
+	/** Port of the RMI registry of the next network. Each network has its own 
+	 * registry, as a registry cannot be unexported from its port. */
+	private static final AtomicInteger NEXT_PORT = new AtomicInteger(21099);
+
+	/** Tracker of the network, as seen by a client */
+	private final Tracker tracker;
+
+	/** Tracker of the network, as exported */
+	private final TrackerImpl trackerImpl;
+
+	/** Peers of the network, as exported */
+	private final List<PeerImpl> peers;
+
+
+	/**
+	 * Creates a network whose peers have the identifiers 0, 100, 200...
+	 * @param nbPeers The number of peers of the network
+	 * @throws Exception If the network could not be created
+	 */
+	public TestNetwork(int nbPeers) throws Exception {
+		this(nbPeers, LinkLatency.NONE);
+	}
+
+	/**
+	 * Creates a network whose peers have the identifiers 0, 100, 200...
+	 * @param nbPeers The number of peers of the network
+	 * @param linkLatency The latency emulated between the peers
+	 * @throws Exception If the network could not be created
+	 */
+	public TestNetwork(int nbPeers, LinkLatency linkLatency) 
+			throws Exception {
+		int port = NEXT_PORT.getAndIncrement();
+		this.trackerImpl = new TrackerImpl(port);
+		this.tracker = (Tracker) Naming.lookup("rmi://localhost:" + port 
+				+ "/tracker");
+		this.peers = new ArrayList<PeerImpl>();
+
+		for (int i = 0 ; i < nbPeers ; i++) {
+			PeerImpl peer = new PeerImpl(new Identifier(i * 100), 
+					linkLatency);
+			this.peers.add(peer);
+			this.tracker.register(peer);
+		}
+		RingBuilder.build(this.tracker.getPeers());
+	}
+
+	/**
+	 * @return The tracker of the network
+	 */
+	public Tracker getTracker() {
+		return this.tracker;
+	}
+
+	/**
+	 * @param i The index of a peer, in the order of the identifiers
+	 * @return The stub of the peer, as returned by the tracker
+	 * @throws RemoteException
+	 */
+	public Peer getPeer(int i) throws RemoteException {
+		return this.tracker.getPeers().get(i);
+	}
+
+	/**
+	 * @param i The index of a peer, in the order of the identifiers
+	 * @return The peer itself, to call the methods that are not remote
+	 */
+	public PeerImpl getPeerImpl(int i) {
+		return this.peers.get(i);
+	}
+
+	/**
+	 * @return The number of peers of the network
+	 */
+	public int size() {
+		return this.peers.size();
+	}
+
+	/**
+	 * Stops all the peers and the tracker.
+	 * @throws RemoteException
+	 */
+	public void shutdown() throws RemoteException {
+		for (PeerImpl peer : this.peers) {
+			try {
+				peer.die();
+			} catch (RemoteException e) {
+				// The peer has already died
+			}
+		}
+		UnicastRemoteObject.unexportObject(this.trackerImpl, true);
+	}
+
+	/**
+	 * Waits until a condition holds, or fails after a while.
+	 * @param condition The condition to wait for
+	 * @param timeout The maximum time to wait, in milliseconds
+	 * @return true if the condition holds, false if the timeout elapsed
+	 * @throws Exception If the condition could not be evaluated
+	 */
+	public static boolean await(Condition condition, long timeout) 
+			throws Exception {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.holds()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(50);
+		}
+		return true;
+	}
+
+	/**
+	 * A condition awaited by a test.
+	 */
+	public interface Condition {
+
+		/**
+		 * @return true if the condition holds
+		 * @throws Exception
+		 */
+		boolean holds() throws Exception;
+
+	}
+
+}
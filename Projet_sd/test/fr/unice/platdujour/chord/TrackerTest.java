@@ -0,0 +1,89 @@
+package fr.unice.platdujour.chord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.unice.platdujour.exceptions.AlreadyRegisteredException;
+
+/**
+ * Tests the registration of the peers by the tracker.
+ */
+public class TrackerTest {
+
+	private TestNetwork network;
+
+	/** Peers created by the tests, besides the ones of the network */
+	private List<PeerImpl> newPeers;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.network = new TestNetwork(3);
+		this.newPeers = new ArrayList<PeerImpl>();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (PeerImpl peer : this.newPeers) {
+			peer.die();
+		}
+		this.network.shutdown();
+	}
+
+	@Test
+	public void testIdentifierOfALivePeerIsNotTaken() throws Exception {
+		this.checkRejected(100);
+		assertEquals(3, this.network.getTracker().getPeers().size());
+	}
+
+	@Test
+	public void testIdentifierOfADeadPeerIsTaken() throws Exception {
+		this.network.getPeerImpl(1).die();
+
+		this.network.getTracker().register(this.newPeer(100));
+		assertEquals(4, this.network.getTracker().getPeers().size());
+	}
+
+	@Test
+	public void testIdentifiersFollowARelocation() throws Exception {
+		Peer peer = this.network.getPeer(1);
+		peer.relocate(new Identifier(150));
+		this.network.getTracker().relocated(peer);
+
+		this.checkRejected(150);
+		this.network.getTracker().register(this.newPeer(100));
+	}
+
+	/**
+	 * Checks that a new peer cannot be registered with an identifier.
+	 * @param id The identifier of the new peer
+	 * @throws Exception
+	 */
+	private void checkRejected(int id) throws Exception {
+		try {
+			this.network.getTracker().register(this.newPeer(id));
+			fail("The identifier " + id + " is already taken");
+		} catch (AlreadyRegisteredException e) {
+			// The identifier is already taken
+		}
+	}
+
+	/**
+	 * @param id The identifier of the new peer
+	 * @return A new peer, which does not belong to the network yet
+	 * @throws Exception
+	 */
+	private PeerImpl newPeer(int id) throws Exception {
+		PeerImpl peer = new PeerImpl(new Identifier(id));
+		this.newPeers.add(peer);
+		return peer;
+	}
+
+}